@@ -4,8 +4,6 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.reflect.ReflectionUtil;
-import org.cobbzilla.util.string.HasLocale;
 import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.model.entityconfig.annotations.*;
 import org.cobbzilla.wizard.validation.ValidationResult;
@@ -21,6 +19,7 @@ import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.string.StringUtil.*;
@@ -92,7 +91,15 @@ public class EntityConfig {
      * A map of `name` -\> [EntityFieldConfig](EntityFieldConfig.md), with each object describing one field of this EntityConfig.
      * Default value: none (required)
      */
-    @Getter @Setter private Map<String, EntityFieldConfig> fields = new LinkedHashMap<>();
+    @Getter private Map<String, EntityFieldConfig> fields = new LinkedHashMap<>();
+    public void setFields(Map<String, EntityFieldConfig> fields) {
+        this.fields = fields;
+        validationPlans.clear();
+    }
+
+    // per entity class, built on first validation. the fields map is public and also filled in place while reading
+    // annotations, so each validation checks the plan still matches it and rebuilds the plan if not
+    private final Map<Class<?>, EntityConfigValidationPlan> validationPlans = new ConcurrentHashMap<>();
     @Setter private List<String> fieldNames;
 
     /**
@@ -156,6 +163,7 @@ public class EntityConfig {
                 this.fields.put(fieldConfig.getKey(), fieldConfig.getValue());
             }
         }
+        validationPlans.clear();
     }
 
     /** Describes child resources of the entity. This is a map of EntityConfig name to EntityConfig. */
@@ -621,18 +629,12 @@ public class EntityConfig {
     }
 
     public ValidationResult validate(Object o) {
-        ValidationResult validation = null;
-        final Locale locale = (o instanceof HasLocale) ? ((HasLocale) o).getLocale() : Locale.getDefault();
-        for (EntityFieldConfig field : getFields().values()) {
-            final Object value = ReflectionUtil.get(o, field.getName());
-            if (value != null) {
-                ValidationResult fieldValidation = field.validate(locale, value);
-                if (fieldValidation != null) {
-                    if (validation == null) validation = new ValidationResult();
-                    validation.addAll(fieldValidation);
-                }
-            }
+        final Map<String, EntityFieldConfig> fieldConfigs = getFields();
+        EntityConfigValidationPlan plan = validationPlans.get(o.getClass());
+        if (plan == null || !plan.matches(fieldConfigs)) {
+            plan = new EntityConfigValidationPlan(o.getClass(), fieldConfigs);
+            validationPlans.put(o.getClass(), plan);
         }
-        return validation;
+        return plan.validate(o);
     }
 }
@@ -0,0 +1,93 @@
+package org.cobbzilla.wizard.model.entityconfig;
+
+import lombok.AllArgsConstructor;
+import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.cobbzilla.util.string.HasLocale;
+import org.cobbzilla.wizard.validation.ValidationResult;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.StringUtils.capitalize;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * The fields of an EntityConfig, each paired with the getter that reads it from one entity class.
+ * Getters are looked up once when the plan is built, not on every validation.
+ */
+class EntityConfigValidationPlan {
+
+    @AllArgsConstructor
+    private static class FieldValidation {
+        private final EntityFieldConfig field;
+        private final String name;
+        private final Function<Object, Object> accessor;
+    }
+
+    private final List<FieldValidation> fields = new ArrayList<>();
+
+    EntityConfigValidationPlan(Class<?> clazz, Map<String, EntityFieldConfig> fieldConfigs) {
+        for (EntityFieldConfig field : fieldConfigs.values()) {
+            fields.add(new FieldValidation(field, field.getName(), accessor(clazz, field.getName())));
+        }
+    }
+
+    /**
+     * @return true if the plan was built from these same field configs, in the same order and with the same names.
+     * Checking costs one pass of reference comparisons, far less than the validation itself.
+     */
+    boolean matches(Map<String, EntityFieldConfig> fieldConfigs) {
+        if (fieldConfigs.size() != fields.size()) return false;
+        int i = 0;
+        for (EntityFieldConfig field : fieldConfigs.values()) {
+            final FieldValidation fv = fields.get(i++);
+            if (fv.field != field || !Objects.equals(fv.name, field.getName())) return false;
+        }
+        return true;
+    }
+
+    ValidationResult validate(Object o) {
+        ValidationResult validation = null;
+        final Locale locale = (o instanceof HasLocale) ? ((HasLocale) o).getLocale() : Locale.getDefault();
+        for (FieldValidation fv : fields) {
+            final Object value = fv.accessor.apply(o);
+            if (value != null) {
+                final ValidationResult fieldValidation = fv.field.validate(locale, value);
+                if (fieldValidation != null) {
+                    if (validation == null) validation = new ValidationResult();
+                    validation.addAll(fieldValidation);
+                }
+            }
+        }
+        return validation;
+    }
+
+    private static Function<Object, Object> accessor(Class<?> clazz, String name) {
+        // nested paths and anything without a plain public getter go through ReflectionUtil, as before
+        final Method getter = name.contains(".") ? null : getter(clazz, name);
+        if (getter == null) return o -> ReflectionUtil.get(o, name);
+        return o -> {
+            try {
+                return getter.invoke(o);
+            } catch (Exception e) {
+                return die("accessor("+clazz.getName()+"."+name+"): "+e, e);
+            }
+        };
+    }
+
+    private static Method getter(Class<?> clazz, String name) {
+        for (String prefix : new String[] {"get", "is"}) {
+            try {
+                final Method m = clazz.getMethod(prefix + capitalize(name));
+                if (m.getParameterCount() == 0 && m.getReturnType() != void.class) return m;
+            } catch (NoSuchMethodException ignored) {}
+        }
+        return null;
+    }
+
+}
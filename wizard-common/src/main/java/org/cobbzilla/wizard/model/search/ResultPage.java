@@ -45,6 +45,14 @@ public class ResultPage {
     }
     public static final String DEFAULT_SORT = SortOrder.DESC.name();
 
+    public enum CountMode {
+        exact,    // run a count(*) query over the full filter
+        estimate, // use the query planner's row estimate, much cheaper but approximate
+        none;     // do not count, just report whether there are more results after this page
+        @JsonCreator public static CountMode create(String val) { return valueOf(val.toLowerCase()); }
+    }
+    public static final CountMode DEFAULT_COUNT_MODE = CountMode.exact;
+
     public static final ResultPage DEFAULT_PAGE = new ResultPage();
     public static final ResultPage FIRST_RESULT = new ResultPage(1, 1);
     public static final int INFINITE = Integer.MAX_VALUE;
@@ -65,6 +73,10 @@ public class ResultPage {
         this.setSortField(other.getSortField());
         this.setSortOrder(other.getSortOrder());
         this.setBounds(other.getBounds());
+        this.setCountMode(other.getCountMode());
+        this.setKeyset(other.isKeyset());
+        this.setAfterValue(other.getAfterValue());
+        this.setAfterUuid(other.getAfterUuid());
     }
 
     public ResultPage(Integer pageNumber, Integer pageSize, String sortField, String sortOrder, String filter, NameAndValue[] bounds) {
@@ -170,6 +182,17 @@ public class ResultPage {
         return this;
     }
 
+    @Setter private CountMode countMode = DEFAULT_COUNT_MODE;
+    public CountMode getCountMode() { return countMode == null ? DEFAULT_COUNT_MODE : countMode; }
+
+    // keyset (seek) pagination: results are ordered by sortField then uuid, and instead of skipping to pageNumber,
+    // the page starts right after the row whose sortField value and uuid are afterValue/afterUuid (the last row
+    // of the previous page). cost does not grow with page depth. supported by AbstractDAO and AbstractShardedDAO.
+    @Getter @Setter private boolean keyset = false;
+    @Getter @Setter private String afterValue;
+    @Getter @Setter private String afterUuid;
+    @JsonIgnore public boolean getHasAfter() { return keyset && afterUuid != null; }
+
     @Getter @Setter private String[] fields;
     @JsonIgnore public boolean getHasFields () { return !empty(fields); }
 
@@ -192,6 +215,10 @@ public class ResultPage {
         if (sortField != null ? !sortField.equals(that.sortField) : that.sortField != null) return false;
         if (sortOrder != null ? !sortOrder.equals(that.sortOrder) : that.sortOrder != null) return false;
         if (!Arrays.equals(that.fields, fields)) return false;
+        if (getCountMode() != that.getCountMode()) return false;
+        if (keyset != that.keyset) return false;
+        if (afterValue != null ? !afterValue.equals(that.afterValue) : that.afterValue != null) return false;
+        if (afterUuid != null ? !afterUuid.equals(that.afterUuid) : that.afterUuid != null) return false;
         return true;
     }
 
@@ -203,6 +230,10 @@ public class ResultPage {
         result = 31 * result + (filter != null ? filter.hashCode() : 0);
         result = 31 * result + (bounds != null ? Arrays.hashCode(bounds) : 0);
         result = 31 * result + (fields != null ? Arrays.hashCode(fields) : 0);
+        result = 31 * result + getCountMode().hashCode();
+        result = 31 * result + (keyset ? 1 : 0);
+        result = 31 * result + (afterValue != null ? afterValue.hashCode() : 0);
+        result = 31 * result + (afterUuid != null ? afterUuid.hashCode() : 0);
         return result;
     }
 }
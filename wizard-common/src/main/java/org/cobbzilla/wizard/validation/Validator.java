@@ -6,6 +6,9 @@ import javax.validation.ValidatorFactory;
 import javax.validation.groups.Default;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 // forked from dropwizard-- https://github.com/codahale/dropwizard
 
@@ -14,12 +17,25 @@ import java.util.List;
  * forked from DropWizard-- https://github.com/codahale/dropwizard
  */
 public class Validator {
-    private final ValidatorFactory factory;
 
-    public Validator() { this(Validation.buildDefaultValidatorFactory()); }
+    // building a factory scans the classpath for constraint mappings, do it once
+    private static class DefaultFactory {
+        static final ValidatorFactory INSTANCE = Validation.buildDefaultValidatorFactory();
+    }
+
+    private final javax.validation.Validator validator;
+
+    // classes with no constraints anywhere (including cascades) are never handed to the validator
+    private final Map<Class<?>, Boolean> constrained = new ConcurrentHashMap<>();
+
+    public Validator() { this(DefaultFactory.INSTANCE); }
 
     public Validator(ValidatorFactory factory) {
-        this.factory = factory;
+        this.validator = factory.getValidator(); // thread-safe
+    }
+
+    public boolean hasConstraints(Class<?> clazz) {
+        return constrained.computeIfAbsent(clazz, c -> validator.getConstraintsForClass(c).isBeanConstrained());
     }
 
     /**
@@ -40,12 +56,14 @@ public class Validator {
      * @return a list of error messages, if any, regarding {@code o}'s validity
      */
     public ValidationResult validate(Object o, Class<?>... groups) {
-        final List<ConstraintViolation> violations = new ArrayList<>();
         if (o == null) {
+            final List<ConstraintViolation> violations = new ArrayList<>();
             violations.add(EmptyRequestEntityConstraintViolation.INSTANCE);
-        } else {
-            violations.addAll(factory.getValidator().validate(o,groups));
+            return new ValidationResult(violations);
         }
-        return new ValidationResult(violations);
+        if (!hasConstraints(o.getClass())) return new ValidationResult();
+
+        final Set<ConstraintViolation<Object>> violations = validator.validate(o, groups);
+        return violations.isEmpty() ? new ValidationResult() : new ValidationResult(new ArrayList<ConstraintViolation>(violations));
     }
 }
@@ -1,11 +1,12 @@
 package org.cobbzilla.wizard.cache.redis;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
 
-@NoArgsConstructor @AllArgsConstructor
+@NoArgsConstructor
 public class RedisConfiguration {
 
     @Getter @Setter private String host = "127.0.0.1";
@@ -14,6 +15,32 @@ public class RedisConfiguration {
     @Setter private String prefix;
     public String getPrefix () { return prefix == null ? "" : prefix; }
 
+    // when poolSize > 0, RedisService borrows connections from a JedisPool instead of sharing a single connection
+    @Getter @Setter private int poolSize = 0;
+    public boolean hasPool () { return poolSize > 0; }
+
+    @Getter @Setter private int poolMinIdle = 0;
+    @Getter @Setter private long poolMaxWait = 5000;
+    @Getter @Setter private int timeout = Protocol.DEFAULT_TIMEOUT;
+
     public RedisConfiguration (String key) { this.key = key; }
 
+    public RedisConfiguration (String host, int port, String key, String prefix) {
+        this.host = host;
+        this.port = port;
+        this.key = key;
+        this.prefix = prefix;
+    }
+
+    public JedisPoolConfig getPoolConfig () {
+        final JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(poolSize);
+        config.setMaxIdle(poolSize);
+        config.setMinIdle(Math.min(poolMinIdle, poolSize));
+        config.setMaxWaitMillis(poolMaxWait);
+        config.setTestOnBorrow(false);
+        config.setTestWhileIdle(true);
+        return config;
+    }
+
 }
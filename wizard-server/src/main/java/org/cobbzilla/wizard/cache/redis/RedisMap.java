@@ -4,9 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.daemon.ZillaRuntime.notSupported;
@@ -46,8 +44,7 @@ public class RedisMap<V> implements Map<String, V> {
         } else if (duration == null) {
             redis.set(keyName(key), toJsonOrDie(value));
         } else {
-            redis.set(keyName(key), toJsonOrDie(value), "NX", "PX", duration);
-            redis.set(keyName(key), toJsonOrDie(value), "XX", "PX", duration);
+            redis.set(keyName(key), toJsonOrDie(value), "PX", duration);
         }
         return null;
     }
@@ -58,8 +55,20 @@ public class RedisMap<V> implements Map<String, V> {
     }
 
     @Override public void putAll(Map<? extends String, ? extends V> m) {
+        final List<String> removed = new ArrayList<>();
+        final Map<String, String> values = new LinkedHashMap<>();
         for (Map.Entry<? extends String, ? extends V> entry : m.entrySet()) {
-            put(entry.getKey(), entry.getValue());
+            if (empty(entry.getValue())) {
+                removed.add(keyName(entry.getKey()));
+            } else {
+                values.put(keyName(entry.getKey()), toJsonOrDie(entry.getValue()));
+            }
+        }
+        redis.del(removed);
+        if (duration == null) {
+            redis.mset(values);
+        } else {
+            redis.msetWithExpiry(values, duration);
         }
     }
 
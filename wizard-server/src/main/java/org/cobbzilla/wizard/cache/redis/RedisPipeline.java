@@ -0,0 +1,56 @@
+package org.cobbzilla.wizard.cache.redis;
+
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Pipeline;
+
+import java.util.Collection;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.wizard.cache.redis.RedisService.expxToMillis;
+
+/**
+ * Queues commands to be sent to redis in a single round trip, via RedisService.pipeline.
+ * Keys are prefixed and values encrypted just like the equivalent RedisService methods.
+ */
+@AllArgsConstructor
+public class RedisPipeline {
+
+    private final RedisService redis;
+    private final Pipeline pipeline;
+
+    public RedisPipeline set(String key, String value) {
+        pipeline.set(redis.prefix(key), redis.encrypt(value));
+        return this;
+    }
+
+    public RedisPipeline set(String key, String value, String nxxx, String expx, long time) {
+        pipeline.set(redis.prefix(key), redis.encrypt(value), nxxx, expx, time);
+        return this;
+    }
+
+    public RedisPipeline set(String key, String value, String expx, long time) {
+        pipeline.psetex(redis.prefix(key), expxToMillis(expx, time), redis.encrypt(value));
+        return this;
+    }
+
+    public RedisPipeline lpush(String key, String value) {
+        pipeline.lpush(redis.prefix(key), redis.encrypt(value));
+        return this;
+    }
+
+    public RedisPipeline expire(String key, int seconds) {
+        pipeline.expire(redis.prefix(key), seconds);
+        return this;
+    }
+
+    public RedisPipeline del(String key) {
+        pipeline.del(redis.prefix(key));
+        return this;
+    }
+
+    public RedisPipeline del(Collection<String> keys) {
+        if (!empty(keys)) pipeline.del(redis.prefix(keys).toArray(new String[keys.size()]));
+        return this;
+    }
+
+}
@@ -7,12 +7,22 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static net.sf.cglib.core.CollectionUtils.transform;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
@@ -31,7 +41,17 @@ public class RedisService {
     protected boolean hasKey () { return !empty(getKey()); }
 
     private final AtomicReference<Jedis> redis = new AtomicReference<>();
-    private Jedis newJedis() { return new Jedis(configuration.getRedis().getHost(), configuration.getRedis().getPort()); }
+    private Jedis newJedis() {
+        final RedisConfiguration config = configuration.getRedis();
+        return new Jedis(config.getHost(), config.getPort(), config.getTimeout());
+    }
+
+    // shared with all RedisServices created via prefixNamespace, so a single pool serves every namespace
+    private AtomicReference<JedisPool> pool = new AtomicReference<>();
+    private JedisPool newPool() {
+        final RedisConfiguration config = configuration.getRedis();
+        return new JedisPool(config.getPoolConfig(), config.getHost(), config.getPort(), config.getTimeout());
+    }
 
     @Getter @Setter private String prefix = null;
 
@@ -59,6 +79,7 @@ public class RedisService {
             String basePrefix = (this.prefix != null) ? this.prefix : configuration.getRedis().getPrefix();
             basePrefix = empty(basePrefix) ? "" : basePrefix + ".";
             r = new RedisService(configuration, basePrefix + prefix, key);
+            r.pool = pool;
             prefixServiceCache.put(prefix, r);
         }
         return r;
@@ -87,20 +108,130 @@ public class RedisService {
         return redis.get();
     }
 
+    private JedisPool getPool () {
+        // only creating the pool takes the lock, every command after that reads it lock-free
+        final JedisPool p = pool.get();
+        if (p != null) return p;
+        synchronized (pool) {
+            if (pool.get() == null) {
+                log.debug("creating redis connection pool...");
+                pool.set(newPool());
+            }
+            return pool.get();
+        }
+    }
+
+    private <T> T withRedis(Function<Jedis, T> op) {
+        if (configuration.getRedis().hasPool()) {
+            // closing a pooled Jedis returns it to the pool, or discards it if the connection is broken
+            try (Jedis jedis = getPool().getResource()) {
+                return op.apply(jedis);
+            }
+        }
+        synchronized (redis) {
+            return op.apply(getRedis());
+        }
+    }
+
+    public void close () {
+        reconnect();
+        synchronized (pool) {
+            if (pool.get() != null) {
+                try { pool.get().destroy(); } catch (Exception e) {
+                    log.warn("error closing redis pool: "+e);
+                }
+                pool.set(null);
+            }
+        }
+    }
+
+    /**
+     * Run multiple commands in a single round trip. Keys are prefixed and values encrypted as usual.
+     * If the pipeline fails it is retried in full, so the commands should be idempotent.
+     * @param commands adds commands to the pipeline
+     * @return the raw results of each command, in order
+     */
+    public List<Object> pipeline(Consumer<RedisPipeline> commands) { return __pipeline(commands, 0, MAX_RETRIES); }
+
+    private List<Object> __pipeline(Consumer<RedisPipeline> commands, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> {
+                final Pipeline p = r.pipelined();
+                commands.accept(new RedisPipeline(this, p));
+                return p.syncAndReturnAll();
+            });
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__pipeline");
+            return __pipeline(commands, attempt+1, maxRetries);
+        }
+    }
+
+    public Long publish(String channel, String message) { return __publish(channel, message, 0, MAX_RETRIES); }
+
+    private Long __publish(String channel, String message, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.publish(prefix(channel), encrypt(message)));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__publish");
+            return __publish(channel, message, attempt+1, maxRetries);
+        }
+    }
+
+    public static final long SUBSCRIBE_RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Subscribe to a channel on a dedicated connection and daemon thread. If the connection is lost,
+     * the subscription is re-established after a short delay; messages published in the meantime are lost.
+     * @param channel the channel to subscribe to, our prefix will be prepended
+     * @param listener called with each decrypted message
+     * @param onSubscribe called each time the subscription is (re-)established, may be null
+     */
+    public void subscribe(String channel, Consumer<String> listener, Runnable onSubscribe) {
+        final String prefixed = prefix(channel);
+        final Thread t = new Thread(() -> {
+            while (true) {
+                try (Jedis jedis = newJedis()) {
+                    jedis.subscribe(new JedisPubSub() {
+                        @Override public void onSubscribe(String ch, int count) {
+                            if (onSubscribe != null) onSubscribe.run();
+                        }
+                        @Override public void onMessage(String ch, String message) {
+                            try {
+                                listener.accept(decrypt(message));
+                            } catch (Exception e) {
+                                log.warn("subscribe("+prefixed+"): error handling message: "+e, e);
+                            }
+                        }
+                    }, prefixed);
+                } catch (Exception e) {
+                    log.warn("subscribe("+prefixed+"): connection error, resubscribing: "+e);
+                }
+                sleep(SUBSCRIBE_RETRY_DELAY, "resubscribing to "+prefixed);
+            }
+        }, "RedisService.subscribe:"+prefixed);
+        t.setDaemon(true);
+        t.start();
+    }
+
     public <V> RedisMap<V> map (String prefix) { return map(prefix, null); }
     public <V> RedisMap<V> map (String prefix, Long duration) { return new RedisMap<>(prefix, duration, this); }
 
     public boolean exists(String key) { return __exists(key, 0, MAX_RETRIES); }
 
-    public boolean anyExists(Collection<String> keys) {
-        for (String k : keys) if (exists(k)) return true;
-        return false;
+    /**
+     * @param keys the keys to check
+     * @return the number of keys that exist. A key that appears more than once in keys is counted each time.
+     */
+    public long exists(Collection<String> keys) {
+        if (empty(keys)) return 0;
+        return __exists(prefix(keys), 0, MAX_RETRIES);
     }
 
-    public boolean allExist(Collection<String> keys) {
-        for (String k : keys) if (!exists(k)) return false;
-        return true;
-    }
+    public boolean anyExists(Collection<String> keys) { return exists(keys) > 0; }
+
+    public boolean allExist(Collection<String> keys) { return exists(keys) == keys.size(); }
 
     public <T> T getObject(String key, Class<T> clazz) {
         final String json = get(key);
@@ -111,6 +242,18 @@ public class RedisService {
 
     public String get_plaintext(String key) { return __get(key, 0, MAX_RETRIES); }
 
+    /**
+     * @param keys the keys to fetch
+     * @return the decrypted values, in the same order as keys. Missing keys have a null value.
+     */
+    public List<String> mget(Collection<String> keys) {
+        if (empty(keys)) return new ArrayList<>();
+        final List<String> values = __mget(prefix(keys), 0, MAX_RETRIES);
+        final List<String> decrypted = new ArrayList<>(values.size());
+        for (String value : values) decrypted.add(decrypt(value));
+        return decrypted;
+    }
+
     public String lpop(String data) { return decrypt(__lpop(data, 0, MAX_RETRIES)); }
 
     public void set(String key, String value, String nxxx, String expx, long time) {
@@ -118,14 +261,49 @@ public class RedisService {
     }
 
     public void set(String key, String value, String expx, long time) {
-        __set(key, value, "XX", expx, time, 0, MAX_RETRIES);
-        __set(key, value, "NX", expx, time, 0, MAX_RETRIES);
+        __psetex(key, value, expxToMillis(expx, time), 0, MAX_RETRIES);
+    }
+
+    public static long expxToMillis(String expx, long time) {
+        switch (expx.toUpperCase()) {
+            case "EX": return TimeUnit.SECONDS.toMillis(time);
+            case "PX": return time;
+            default: return die("expxToMillis: invalid expx: "+expx);
+        }
     }
 
     public void set(String key, String value) { __set(key, value, 0, MAX_RETRIES); }
 
     public void setAll(Collection<String> keys, String value, String expx, long time) {
-        for (String k : keys) set(k, value, expx, time);
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (String k : keys) values.put(k, value);
+        msetWithExpiry(values, expxToMillis(expx, time));
+    }
+
+    public void mset(Map<String, String> values) {
+        if (empty(values)) return;
+        final String[] keysvalues = new String[values.size()*2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            keysvalues[i++] = prefix(entry.getKey());
+            keysvalues[i++] = encrypt(entry.getValue());
+        }
+        __mset(keysvalues, 0, MAX_RETRIES);
+    }
+
+    /**
+     * Set many keys in one round trip, each with the same expiration. Redis has no MSET with expiry,
+     * so this sends a pipeline of PSETEX commands.
+     * @param values keys and values to set
+     * @param millis expiration time in milliseconds
+     */
+    public void msetWithExpiry(Map<String, String> values, long millis) {
+        if (empty(values)) return;
+        pipeline(p -> {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                p.set(entry.getKey(), entry.getValue(), "PX", millis);
+            }
+        });
     }
 
     public <T> void setObject(String key, T thing) { __set(key, toJsonOrDie(thing), 0, MAX_RETRIES); }
@@ -134,6 +312,13 @@ public class RedisService {
 
     public void del(String key) { __del(key, 0, MAX_RETRIES); }
 
+    public void del(Collection<String> keys) {
+        if (empty(keys)) return;
+        __del(prefix(keys), 0, MAX_RETRIES);
+    }
+
+    public Long expire(String key, int seconds) { return __expire(key, seconds, 0, MAX_RETRIES); }
+
     public void set_plaintext(String key, String value, String nxxx, String expx, long time) {
         __set(key, value, nxxx, expx, time, 0, MAX_RETRIES);
     }
@@ -173,15 +358,42 @@ public class RedisService {
 
     public List<String> list(String key) { return __list(key, 0, MAX_RETRIES); }
 
-    public Collection<String> keys(String key) { return __keys(key, 0, MAX_RETRIES); }
+    public static final int DEFAULT_SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * Find keys matching a pattern. Uses SCAN, so the server is never blocked for long,
+     * but all matching keys are still collected in memory. For large keyspaces, use scan with a consumer.
+     * @param key the pattern to match, our prefix will be prepended
+     * @return the matching keys, with our prefix
+     */
+    public Collection<String> keys(String key) {
+        final Set<String> keys = new HashSet<>();
+        scan(key, DEFAULT_SCAN_BATCH_SIZE, keys::addAll);
+        return keys;
+    }
+
+    /**
+     * Incrementally iterate over keys matching a pattern using SCAN.
+     * A key may be delivered more than once if the keyspace changes while scanning.
+     * @param pattern the pattern to match, our prefix will be prepended
+     * @param batchSize the COUNT hint sent with each SCAN
+     * @param consumer called with each non-empty batch of matching keys. Keys include our prefix.
+     */
+    public void scan(String pattern, int batchSize, Consumer<List<String>> consumer) {
+        final ScanParams params = new ScanParams().match(prefix(pattern)).count(batchSize);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            final ScanResult<String> result = __scan(cursor, params, 0, MAX_RETRIES);
+            if (!empty(result.getResult())) consumer.accept(result.getResult());
+            cursor = result.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+    }
 
     public String loadScript(String script) { return __loadScript(script, 0, MAX_RETRIES); }
 
     private String __loadScript(String script, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().scriptLoad(script);
-            }
+            return withRedis(r -> r.scriptLoad(script));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__loadScript");
@@ -196,9 +408,7 @@ public class RedisService {
 
     private Object __eval(String scriptsha, List<String> keys, List<String> args, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().evalsha(scriptsha, keys, args);
-            }
+            return withRedis(r -> r.evalsha(scriptsha, keys, args));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__eval");
@@ -228,9 +438,7 @@ public class RedisService {
 
     private String __get(String key, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().get(prefix(key));
-            }
+            return withRedis(r -> r.get(prefix(key)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__get");
@@ -238,11 +446,39 @@ public class RedisService {
         }
     }
 
+    private long __exists(List<String> prefixedKeys, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.exists(prefixedKeys.toArray(new String[prefixedKeys.size()])));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__exists");
+            return __exists(prefixedKeys, attempt+1, maxRetries);
+        }
+    }
+
+    private List<String> __mget(List<String> prefixedKeys, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.mget(prefixedKeys.toArray(new String[prefixedKeys.size()])));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__mget");
+            return __mget(prefixedKeys, attempt+1, maxRetries);
+        }
+    }
+
+    private String __mset(String[] keysvalues, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.mset(keysvalues));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__mset");
+            return __mset(keysvalues, attempt+1, maxRetries);
+        }
+    }
+
     private boolean __exists(String key, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().exists(prefix(key));
-            }
+            return withRedis(r -> r.exists(prefix(key)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__exists");
@@ -252,9 +488,7 @@ public class RedisService {
 
     private String __set(String key, String value, String nxxx, String expx, long time, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().set(prefix(key), encrypt(value), nxxx, expx, time);
-            }
+            return withRedis(r -> r.set(prefix(key), encrypt(value), nxxx, expx, time));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__set");
@@ -262,11 +496,19 @@ public class RedisService {
         }
     }
 
+    private String __psetex(String key, String value, long millis, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.psetex(prefix(key), millis, encrypt(value)));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__psetex");
+            return __psetex(key, value, millis, attempt + 1, maxRetries);
+        }
+    }
+
     private String __set(String key, String value, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().set(prefix(key), encrypt(value));
-            }
+            return withRedis(r -> r.set(prefix(key), encrypt(value)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__set");
@@ -276,9 +518,7 @@ public class RedisService {
 
     private Long __lpush(String key, String value, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().lpush(prefix(key), encrypt(value));
-            }
+            return withRedis(r -> r.lpush(prefix(key), encrypt(value)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__lpush");
@@ -288,9 +528,7 @@ public class RedisService {
 
     private String __lpop(String data, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().lpop(data);
-            }
+            return withRedis(r -> r.lpop(data));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__lpop");
@@ -298,11 +536,19 @@ public class RedisService {
         }
     }
 
+    private Long __del(List<String> prefixedKeys, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.del(prefixedKeys.toArray(new String[prefixedKeys.size()])));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__del");
+            return __del(prefixedKeys, attempt+1, maxRetries);
+        }
+    }
+
     private Long __del(String key, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().del(prefix(key));
-            }
+            return withRedis(r -> r.del(prefix(key)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__del");
@@ -310,11 +556,19 @@ public class RedisService {
         }
     }
 
+    private Long __expire(String key, int seconds, int attempt, int maxRetries) {
+        try {
+            return withRedis(r -> r.expire(prefix(key), seconds));
+        } catch (RuntimeException e) {
+            if (attempt > maxRetries) throw e;
+            resetForRetry(attempt, "retrying RedisService.__expire");
+            return __expire(key, seconds, attempt+1, maxRetries);
+        }
+    }
+
     private Long __sadd(String key, String[] members, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().sadd(prefix(key), members);
-            }
+            return withRedis(r -> r.sadd(prefix(key), members));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__sadd");
@@ -324,9 +578,7 @@ public class RedisService {
 
     private Long __srem(String key, String[] members, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().srem(prefix(key), members);
-            }
+            return withRedis(r -> r.srem(prefix(key), members));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__srem");
@@ -336,9 +588,7 @@ public class RedisService {
 
     private Set<String> __smembers(String key, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().smembers(prefix(key));
-            }
+            return withRedis(r -> r.smembers(prefix(key)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__smembers");
@@ -348,9 +598,7 @@ public class RedisService {
 
     private List<String> __srandmember(String key, int count, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().srandmember(prefix(key), count);
-            }
+            return withRedis(r -> r.srandmember(prefix(key), count));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__srandmember");
@@ -360,9 +608,7 @@ public class RedisService {
 
     private Set<String> __spop(String key, long count, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().spop(prefix(key), count);
-            }
+            return withRedis(r -> r.spop(prefix(key), count));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__spop");
@@ -372,9 +618,7 @@ public class RedisService {
 
     private Long __scard(String key, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().scard(prefix(key));
-            }
+            return withRedis(r -> r.scard(prefix(key)));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__scard");
@@ -384,9 +628,7 @@ public class RedisService {
 
     private Long __incrBy(String key, long value, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().incrBy(prefix(key), value);
-            }
+            return withRedis(r -> r.incrBy(prefix(key), value));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__incrBy");
@@ -396,9 +638,7 @@ public class RedisService {
 
     private Long __decrBy(String key, long value, int attempt, int maxRetries) {
         try {
-            synchronized (redis) {
-                return getRedis().decrBy(prefix(key), value);
-            }
+            return withRedis(r -> r.decrBy(prefix(key), value));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
             resetForRetry(attempt, "retrying RedisService.__decrBy");
@@ -408,16 +648,7 @@ public class RedisService {
 
     private List<String> __list(String key, int attempt, int maxRetries) {
         try {
-            final Long llen;
-            synchronized (redis) {
-                llen = getRedis().llen(prefix(key));
-            }
-            if (llen == null) return null;
-
-            final List<String> range;
-            synchronized (redis) {
-                range = getRedis().lrange(prefix(key), 0, llen);
-            }
+            final List<String> range = withRedis(r -> r.lrange(prefix(key), 0, -1));
             final List<String> list = new ArrayList<>(range.size());
             for (String item : range) list.add(decrypt(item));
 
@@ -430,26 +661,31 @@ public class RedisService {
         }
     }
 
-    private Collection<String> __keys(String key, int attempt, int maxRetries) {
+    private ScanResult<String> __scan(String cursor, ScanParams params, int attempt, int maxRetries) {
         try {
-            final Set<String> keys;
-            synchronized (redis) {
-                keys = getRedis().keys(prefix(key));
-            }
-            return keys;
-
+            return withRedis(r -> r.scan(cursor, params));
         } catch (RuntimeException e) {
             if (attempt > maxRetries) throw e;
-            resetForRetry(attempt, "retrying RedisService.__keys");
-            return __list(key, attempt + 1, maxRetries);
+            resetForRetry(attempt, "retrying RedisService.__scan");
+            return __scan(cursor, params, attempt+1, maxRetries);
         }
     }
 
-    public void flush() {
-        final Collection<String> keys = keys(prefix("*"));
-        for (String key : keys) {
-            del(key);
-        }
+    public void flush() { flush(DEFAULT_SCAN_BATCH_SIZE); }
+
+    /**
+     * Delete every key in our namespace, one SCAN batch at a time, so the server is never blocked
+     * and the set of keys is never held in memory all at once.
+     * @param batchSize the number of keys to scan and delete per round trip
+     * @return the number of keys deleted
+     */
+    public long flush(int batchSize) { return deleteMatching("*", batchSize); }
+
+    public long deleteMatching(String pattern, int batchSize) {
+        final AtomicLong count = new AtomicLong(0);
+        // scanned keys already have our prefix applied, so delete them as-is
+        scan(pattern, batchSize, keys -> count.addAndGet(__del(keys, 0, MAX_RETRIES)));
+        return count.get();
     }
 
 }
@@ -5,33 +5,46 @@ package org.cobbzilla.wizard.dao;
  * https://github.com/dropwizard/dropwizard/blob/master/LICENSE
  */
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.api.CrudOperation;
+import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.model.AuditLog;
 import org.cobbzilla.wizard.model.Identifiable;
+import org.cobbzilla.wizard.util.FieldCopier;
 import org.hibernate.FlushMode;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
+import org.hibernate.proxy.HibernateProxy;
 import org.springframework.orm.hibernate4.HibernateTemplate;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
 import static org.cobbzilla.util.reflect.ReflectionUtil.*;
-import static org.cobbzilla.util.time.TimeUtil.formatDuration;
 import static org.hibernate.criterion.Restrictions.*;
 
 @Transactional @Slf4j
@@ -73,39 +86,93 @@ public abstract class AbstractCRUDDAO<E extends Identifiable> extends AbstractDA
 
     protected String subCacheAttribute () { return null; }
 
-    public boolean flushObjectCache() {
-        synchronized (ocache) {
-            if (empty(ocache.get())) {
-                return false;
-            } else {
-                ocache.set(new ConcurrentHashMap<>());
-                return true;
-            }
-        }
+    // override to return a RedisService, to have object cache flushes propagated to every node sharing that redis
+    protected RedisService getObjectCacheRedis() { return null; }
+
+    @Getter(lazy=true) private final ObjectCacheBus objectCacheBus = initObjectCacheBus();
+    private ObjectCacheBus initObjectCacheBus() {
+        final RedisService redis = getObjectCacheRedis();
+        return redis == null ? null : ObjectCacheBus.register(redis, this);
     }
 
-    public void flushObjectCache(E entity) {
-        synchronized (ocache) {
-            if (empty(ocache.get())) return;
+    public boolean flushObjectCache() {
+        final boolean flushed = flushLocalObjectCache();
+        publishObjectCacheFlush(null, null);
+        return flushed;
+    }
 
-            final String subCacheAttr = subCacheAttribute();
-            final Object val = (subCacheAttr != null) ? ReflectionUtil.get(entity, subCacheAttr) : null;
+    public boolean flushLocalObjectCache() {
+        // before the size check: a load still in flight is not counted, but must not be stored either
+        flushGeneration.incrementAndGet();
+        final Cache<ObjectCacheKey, Object> c = getOcache();
+        if (c.size() == 0) return false;
+        c.invalidateAll();
+        return true;
+    }
 
-            if (val != null) {
-                Map<Object, Object> subCache = (Map<Object, Object>) ocache.get().get(val);
-                if (subCache != null && !subCache.isEmpty()) {
-                    subCache = new ConcurrentHashMap<>();
-                    ocache.get().put(val.toString(), subCache);
-                }
-            } else {
-                ocache.set(new ConcurrentHashMap<>());
-            }
+    /**
+     * Override to enable targeted eviction: return every cacheKey under which the entity may have been cached.
+     * When null is returned (the default), the entity's entire sub-cache is flushed.
+     * @param entity the entity that is being created, updated or deleted
+     * @return the cache keys to evict, or null if they cannot be determined
+     */
+    protected Collection<String> getObjectCacheKeys(E entity) { return null; }
 
-            final Map globalCache = (Map) ocache.get().get(NO_SUB_KEY);
-            if (!empty(globalCache)) {
-                ocache.get().put(NO_SUB_KEY, new ConcurrentHashMap<>());
+    public void flushObjectCache(E entity) {
+        final String subCacheAttr = subCacheAttribute();
+        final Object val = (subCacheAttr != null) ? ReflectionUtil.get(entity, subCacheAttr) : null;
+        final String subCacheKey = (val != null) ? val.toString() : null;
+        final Collection<String> keys = getObjectCacheKeys(entity);
+        if (subCacheKey != null || keys != null) {
+            flushLocalObjectCache(subCacheKey, keys);
+        } else {
+            flushLocalObjectCache();
+        }
+        publishObjectCacheFlush(subCacheKey, keys);
+    }
+
+    public void flushLocalObjectCache(String subCacheKey) { flushLocalObjectCache(subCacheKey, null); }
+
+    /**
+     * Evict entries from the sub-cache and from the global (NO_SUB_KEY) cache.
+     * @param subCacheKey the sub-cache to evict from. if null, evict from every sub-cache
+     * @param keys the keys to evict. if null, evict every key in the sub-cache, and the entire global cache
+     */
+    public void flushLocalObjectCache(String subCacheKey, Collection<String> keys) {
+        final String sub = subCacheAttribute() == null ? null : subCacheKey;
+        if (sub == null && subCacheAttribute() != null) {
+            flushGeneration.incrementAndGet(); // every sub-cache
+        } else {
+            subFlushGenerations.incrementAndGet(generationStripe(NO_SUB_KEY));
+            if (sub != null) subFlushGenerations.incrementAndGet(generationStripe(sub));
+        }
+        final Cache<ObjectCacheKey, Object> c = getOcache();
+        if (c.size() == 0) return;
+
+        // when the keys and their sub-cache are known, evict exactly those entries
+        if (keys != null && (sub != null || subCacheAttribute() == null)) {
+            final List<ObjectCacheKey> evict = new ArrayList<>(sub == null ? keys.size() : 2*keys.size());
+            for (String k : keys) {
+                evict.add(new ObjectCacheKey(NO_SUB_KEY, k));
+                if (sub != null) evict.add(new ObjectCacheKey(sub, k));
             }
+            c.invalidateAll(evict);
+            return;
+        }
+        c.asMap().keySet().removeIf(k -> (sub == null || k.getSubKey().equals(sub) || k.getSubKey().equals(NO_SUB_KEY))
+                                          && (keys == null || keys.contains(k.getKey())));
+    }
+
+    private void publishObjectCacheFlush(String subCacheKey, Collection<String> keys) {
+        final ObjectCacheBus bus = getObjectCacheBus();
+        if (bus == null) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // publish again after commit, so other nodes cannot re-cache the old value in the meantime
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() { bus.publish(getEntityClass(), subCacheKey, keys); }
+            });
         }
+        bus.publish(getEntityClass(), subCacheKey, keys);
     }
 
     @Override public E postCreate(E entity, Object context) {
@@ -123,6 +190,26 @@ public abstract class AbstractCRUDDAO<E extends Identifiable> extends AbstractDA
         return dao.postCreate(entity, ctx);
     }
 
+    /**
+     * Create many entities with a single flush, so hibernate can send the inserts in jdbc batches
+     * (see HibernateConfiguration.jdbcBatchSize). preCreate and postCreate are still called for each entity.
+     */
+    public List<E> createAll(Collection<E> entities) {
+        final List<E> created = new ArrayList<>();
+        if (empty(entities)) return created;
+        setFlushMode();
+        final List<Object> contexts = new ArrayList<>(entities.size());
+        for (E entity : entities) {
+            entity.beforeCreate();
+            contexts.add(preCreate(entity));
+            entity.setUuid((String) getHibernateTemplate().save(checkNotNull(entity)));
+        }
+        getHibernateTemplate().flush();
+        int i = 0;
+        for (E entity : entities) created.add(postCreate(entity, contexts.get(i++)));
+        return created;
+    }
+
     @Override public E createOrUpdate(@Valid E entity) {
         return (entity.getUuid() == null) ? create(entity) : update(entity);
     }
@@ -149,6 +236,25 @@ public abstract class AbstractCRUDDAO<E extends Identifiable> extends AbstractDA
 
     @Override public E update(@Valid E entity) { return update(entity, this); }
 
+    /**
+     * Update many entities with a single flush, so hibernate can send the updates in jdbc batches.
+     * preUpdate and postUpdate are still called for each entity.
+     */
+    public List<E> updateAll(Collection<E> entities) {
+        final List<E> updated = new ArrayList<>();
+        if (empty(entities)) return updated;
+        setFlushMode();
+        final List<Object> contexts = new ArrayList<>(entities.size());
+        for (E entity : entities) {
+            entity.beforeUpdate();
+            contexts.add(preUpdate(entity));
+            updated.add(getHibernateTemplate().merge(checkNotNull(entity)));
+        }
+        getHibernateTemplate().flush();
+        for (int i=0; i<updated.size(); i++) updated.set(i, postUpdate(updated.get(i), contexts.get(i)));
+        return updated;
+    }
+
     public static <E extends Identifiable> E update(@Valid E entity, AbstractCRUDDAO<E> dao) {
         entity.beforeUpdate();
         final Object ctx = dao.preUpdate(entity);
@@ -326,12 +432,64 @@ public abstract class AbstractCRUDDAO<E extends Identifiable> extends AbstractDA
         return list(sort(criteria().add(and(expr1, expr2, expr3, expr4))), 0, getFinderMaxResults());
     }
 
-    @Getter private final AtomicReference<Map<String, Object>> ocache = new AtomicReference<>(new ConcurrentHashMap<>());
+    @AllArgsConstructor @EqualsAndHashCode @ToString
+    public static class ObjectCacheKey {
+        @Getter private final String subKey;
+        @Getter private final String key;
+    }
+
+    public static final long DEFAULT_OBJECT_CACHE_MAX_SIZE = 10_000;
+
+    // bounds for the object cache. if getObjectCacheMaxWeight is > 0, it is used instead of getObjectCacheMaxSize,
+    // and each entry weighs 1 plus the size of the cached value if it is a collection
+    protected long getObjectCacheMaxSize() { return DEFAULT_OBJECT_CACHE_MAX_SIZE; }
+    protected long getObjectCacheMaxWeight() { return 0; }
+    protected int getObjectCacheWeight(Object value) { return value instanceof Collection ? 1 + ((Collection) value).size() : 1; }
+
+    // expire entries this long after they were loaded. 0 means never
+    protected long getObjectCacheTimeoutSeconds() { return 0; }
+
+    @Getter(lazy=true) private final Cache<ObjectCacheKey, Object> ocache = initObjectCache();
+    private Cache<ObjectCacheKey, Object> initObjectCache() {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        if (getObjectCacheMaxWeight() > 0) {
+            builder.maximumWeight(getObjectCacheMaxWeight()).weigher((k, v) -> getObjectCacheWeight(v));
+        } else {
+            builder.maximumSize(getObjectCacheMaxSize());
+        }
+        if (getObjectCacheTimeoutSeconds() > 0) builder.expireAfterWrite(getObjectCacheTimeoutSeconds(), TimeUnit.SECONDS);
+        return builder.build();
+    }
+
+    public CacheStats getObjectCacheStats() { return getOcache().stats(); }
+
+    // invalidating an entry does not stop a load that is already running for it, so every flush bumps a generation
+    // (per sub-key for a targeted flush, or global), and a load that saw the generation change drops what it stored.
+    // sub-keys share a fixed set of counters: a collision only costs an extra miss
+    private static final int GENERATION_STRIPES = 64;
+    private final AtomicLong flushGeneration = new AtomicLong();
+    private final AtomicLongArray subFlushGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private int generationStripe(String subKey) { return Math.floorMod(subKey.hashCode(), GENERATION_STRIPES); }
+
+    // targeted flushes always bump NO_SUB_KEY too, so a global-cache key only needs its own stripe
+    private long flushGeneration(String subKey) {
+        return flushGeneration.get() + subFlushGenerations.get(generationStripe(subKey));
+    }
+
+    // when there is no subCacheAttribute, all lookups share a single sub-cache
+    private String objectCacheSubKey(String cacheSubKey) {
+        return subCacheAttribute() == null || cacheSubKey == null ? NO_SUB_KEY : cacheSubKey;
+    }
 
     private static final Object NULL_OBJECT = new Object();
-    private static final AtomicInteger cacheHits = new AtomicInteger(0);
-    private static final AtomicInteger cacheMisses = new AtomicInteger(0);
-    private static final AtomicLong cacheMissTime = new AtomicLong(0);
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+    private static final LongAdder cacheMissTime = new LongAdder();
+
+    public static ObjectCacheMetrics getObjectCacheMetrics() {
+        return new ObjectCacheMetrics(cacheHits.sum(), cacheMisses.sum(), cacheMissTime.sum());
+    }
 
     @Transactional(readOnly=true)
     public <T> T cacheLookup(String cacheKey, Function<Object[], T> lookup, Object... args) {
@@ -340,50 +498,69 @@ public abstract class AbstractCRUDDAO<E extends Identifiable> extends AbstractDA
 
     @Transactional(readOnly=true)
     public <T> T cacheLookup(String cacheKey, String cacheSubKey, Function<Object[], T> lookup, Object... args) {
-        final String subCacheAttr = subCacheAttribute();
-        final Map<String, Object> c;
-        synchronized (ocache) {
-            c = subCacheAttr == null ? ocache.get() : (Map<String, Object>) ocache.get().computeIfAbsent(cacheSubKey, o -> new ConcurrentHashMap<String, Object>());
+        // subscribe before caching anything, or a node that never writes would never hear about other nodes' flushes
+        getObjectCacheBus();
+        final Cache<ObjectCacheKey, Object> c = getOcache();
+        final ObjectCacheKey key = new ObjectCacheKey(objectCacheSubKey(cacheSubKey), cacheKey);
+        final Object cached = c.getIfPresent(key);
+        if (cached != null) {
+            cacheHits.increment();
+            return cacheCopy((T) cached);
         }
-        if (!c.containsKey(cacheKey)) {
-            synchronized (c) {
-                if (!c.containsKey(cacheKey)) {
-                    final long start = now();
-                    final T thing;
-                    try {
-                        thing = lookup.apply(args);
-                    } catch (Exception e) {
-                        return die("cacheLookup: lookup failed: "+e, e);
-                    }
-                    final long end = now();
-                    int misses = cacheMisses.incrementAndGet();
-                    long missTime = cacheMissTime.addAndGet(end - start);
-                    if (misses % 1000 == 0) log.info("DAO-cache: "+misses+" misses took "+cacheMissTime + " to look up, average of "+(missTime/misses)+"ms per lookup");
-
-                    c.put(cacheKey, thing == null ? NULL_OBJECT : thing);
-                }
-            }
+
+        // concurrent misses on the same key wait for a single load, misses on other keys load in parallel
+        final long generation = flushGeneration(key.getSubKey());
+        final Object found;
+        try {
+            found = c.get(key, () -> {
+                final long start = now();
+                final T thing = lookup.apply(args);
+                cacheMisses.increment();
+                cacheMissTime.add(now() - start);
+                return thing == null ? NULL_OBJECT : cacheStore(thing);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // rethrow what the lookup threw, so callers still see their own exception types
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            return die("cacheLookup: lookup failed: "+e.getCause(), e.getCause());
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
         }
-        return getOrNull(cacheKey, c);
+        // flushed while loading: what we loaded may predate the change, give it to this caller only
+        if (flushGeneration(key.getSubKey()) != generation) c.asMap().remove(key, found);
+        return cacheCopy((T) found);
     }
 
-    private <T> T getOrNull(String cacheKey, Map<String, Object> c) {
-        int hits = cacheHits.incrementAndGet();
-        if (hits % 1000 == 0) log.info("DAO-cache: "+hits+" cache hits, saved "+formatDuration(hits*(cacheMissTime.get()/cacheMisses.get())));
-        return cacheCopy((T) c.get(cacheKey));
+    protected ObjectCacheMode getObjectCacheMode() { return ObjectCacheMode.mirror; }
+
+    private <T> T cacheStore(T thing) {
+        if (getObjectCacheMode() != ObjectCacheMode.shared || empty(thing)) return thing;
+        // copy once so the caller that loaded it can't modify what we share
+        final T copy = copyObject(thing, ObjectCacheMode.snapshot);
+        if (copy instanceof List) return (T) Collections.unmodifiableList((List) copy);
+        if (copy instanceof Set) return (T) Collections.unmodifiableSet((Set) copy);
+        if (copy instanceof Collection) return (T) Collections.unmodifiableCollection((Collection) copy);
+        return copy;
     }
 
     private <T> T cacheCopy(T thing) {
         if (thing == NULL_OBJECT) return null;
         if (empty(thing)) return thing;
+        final ObjectCacheMode mode = getObjectCacheMode();
+        return mode == ObjectCacheMode.shared ? thing : copyObject(thing, mode);
+    }
+
+    private <T> T copyObject(T thing, ObjectCacheMode mode) {
         try {
             if (thing instanceof Collection) {
                 final Collection c = (Collection) instantiate(thing.getClass());
                 for (Iterator iter = ((Collection) thing).iterator(); iter.hasNext(); ) {
                     final Object element = iter.next();
-                    c.add(cacheCopy(element));
+                    c.add(element == null ? null : copyObject(element, mode));
                 }
                 return (T) c;
+            } else if (mode == ObjectCacheMode.snapshot && !(thing instanceof HibernateProxy)) {
+                return FieldCopier.copyOf(thing);
             } else {
                 return mirror(thing);
             }
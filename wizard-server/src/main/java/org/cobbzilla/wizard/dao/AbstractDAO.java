@@ -25,6 +25,7 @@ import org.springframework.orm.hibernate4.HibernateTemplate;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -264,18 +265,36 @@ public abstract class AbstractDAO<E extends Identifiable> implements DAO<E> {
                 filterClause += formatBound(entityAlias, bound.getName(), bound.getValue());
             }
         }
+        // keyset paging: seek past the last row of the previous page. the count still covers the whole filter
+        String pageClause = filterClause;
+        String[] pageParams = params;
+        Object[] pageValues = values;
+        if (resultPage.getHasAfter()) {
+            final Object afterValue = KeysetPagination.parseAfterValue(getEntityClass(), resultPage);
+            if (pageClause.length() > 0) pageClause += "and ";
+            pageClause += KeysetPagination.afterClause(entityAlias, resultPage, afterValue != null);
+            final List<String> p = new ArrayList<>(Arrays.asList(params));
+            final List<Object> v = new ArrayList<>(Arrays.asList(values));
+            p.add(KeysetPagination.AFTER_UUID_PARAM);
+            v.add(resultPage.getAfterUuid());
+            if (afterValue != null) {
+                p.add(KeysetPagination.AFTER_VALUE_PARAM);
+                v.add(afterValue);
+            }
+            pageParams = p.toArray(new String[p.size()]);
+            pageValues = v.toArray();
+        }
         if (filterClause.length() > 0) filterClause = "where "+filterClause;
+        if (pageClause.length() > 0) pageClause = "where "+pageClause;
 
         final String selectClause = getSelectClause(resultPage);
-        final StringBuilder qBuilder = new StringBuilder("select ")
-                .append(selectClause).append(" ")
-                .append("from ").append(getEntityClass().getSimpleName()).append(" ").append(entityAlias).append(" ")
-                .append(filterClause);
+        final String fromClause = "from " + getEntityClass().getSimpleName() + " " + entityAlias + " ";
 
-        final String countQuery = "select count(*) " + qBuilder.toString();
-        final String query = qBuilder.append(" order by ").append(entityAlias).append(".").append(resultPage.getSortField()).append(" ").append(resultPage.getSortType().name()).toString();
+        final String countQuery = "select count(*) " + fromClause + filterClause;
+        final String query = "select " + selectClause + " " + fromClause + pageClause + " order by " + KeysetPagination.orderBy(entityAlias, resultPage);
 
-        List<E> results = query(query, resultPage, params, values);
+        final ResultPage page = resultPage.isKeyset() ? new ResultPage(1, resultPage.getPageSize()) : resultPage;
+        List<E> results = query(query, page, pageParams, pageValues);
         final int totalCount = Integer.valueOf(""+query(countQuery, ResultPage.INFINITE_PAGE, params, values).get(0));
 
         // the caller may want the results filtered (remove sensitive fields)
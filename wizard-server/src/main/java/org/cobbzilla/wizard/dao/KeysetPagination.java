@@ -0,0 +1,100 @@
+package org.cobbzilla.wizard.dao;
+
+import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.cobbzilla.wizard.model.Identifiable;
+import org.cobbzilla.wizard.model.search.ResultPage;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Comparator;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.notSupported;
+
+/**
+ * Helpers for keyset (seek) pagination with ResultPage.keyset: rows are ordered by (sortField, uuid), and a page
+ * starts after the (afterValue, afterUuid) row instead of at an offset. Nulls sort last when ascending and first
+ * when descending, the same as postgres.
+ */
+public class KeysetPagination {
+
+    public static final String AFTER_VALUE_PARAM = "keysetAfterValue";
+    public static final String AFTER_UUID_PARAM = "keysetAfterUuid";
+
+    /** @return the ORDER BY expression for resultPage, with uuid as a tiebreaker when keyset paging */
+    public static String orderBy(String entityAlias, ResultPage resultPage) {
+        final String dir = resultPage.getSortType().name();
+        final String orderBy = entityAlias + "." + resultPage.getSortField() + " " + dir;
+        return resultPage.isKeyset() && !resultPage.getSortField().equals("uuid")
+                ? orderBy + ", " + entityAlias + ".uuid " + dir
+                : orderBy;
+    }
+
+    /**
+     * @return a where-clause fragment matching rows after the resultPage's afterValue/afterUuid.
+     * binds AFTER_UUID_PARAM, and AFTER_VALUE_PARAM when afterValue is not null
+     */
+    public static String afterClause(String entityAlias, ResultPage resultPage, boolean hasValue) {
+        final String f = entityAlias + "." + resultPage.getSortField();
+        final String u = entityAlias + ".uuid";
+        final boolean asc = resultPage.getSortType().isAscending();
+        final String cmp = asc ? ">" : "<";
+        if (resultPage.getSortField().equals("uuid")) return "(" + u + " " + cmp + " :" + AFTER_UUID_PARAM + ") ";
+        if (hasValue) {
+            final String after = f + " " + cmp + " :" + AFTER_VALUE_PARAM
+                    + " or (" + f + " = :" + AFTER_VALUE_PARAM + " and " + u + " " + cmp + " :" + AFTER_UUID_PARAM + ")";
+            // ascending, nulls come after every value
+            return "(" + after + (asc ? " or " + f + " is null" : "") + ") ";
+        }
+        // the previous page ended on a null
+        final String afterNull = f + " is null and " + u + " " + cmp + " :" + AFTER_UUID_PARAM;
+        return "(" + afterNull + (asc ? "" : " or " + f + " is not null") + ") ";
+    }
+
+    /** @return afterValue converted to the java type of the entity's sortField, or null */
+    public static Object parseAfterValue(Class<?> entityClass, ResultPage resultPage) {
+        final String value = resultPage.getAfterValue();
+        if (value == null) return null;
+        final Class<?> type = fieldType(entityClass, resultPage.getSortField());
+        if (type == String.class) return value;
+        if (type == long.class || type == Long.class) return Long.valueOf(value);
+        if (type == int.class || type == Integer.class) return Integer.valueOf(value);
+        if (type == short.class || type == Short.class) return Short.valueOf(value);
+        if (type == double.class || type == Double.class) return Double.valueOf(value);
+        if (type == float.class || type == Float.class) return Float.valueOf(value);
+        if (type == boolean.class || type == Boolean.class) return Boolean.valueOf(value);
+        if (type == BigDecimal.class) return new BigDecimal(value);
+        if (type == BigInteger.class) return new BigInteger(value);
+        if (type.isEnum()) return Enum.valueOf((Class<Enum>) type, value);
+        return notSupported("parseAfterValue: unsupported sort field type: "+type.getName());
+    }
+
+    public static Class<?> fieldType(Class<?> entityClass, String field) {
+        for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                final Field f = c.getDeclaredField(field);
+                return f.getType();
+            } catch (NoSuchFieldException ignored) {}
+        }
+        return die("fieldType: field "+field+" not found in "+entityClass.getName());
+    }
+
+    /** @return a comparator giving the same order as orderBy(alias, resultPage) */
+    public static <E extends Identifiable> Comparator<E> comparator(ResultPage resultPage) {
+        final String field = resultPage.getSortField();
+        final boolean asc = resultPage.getSortType().isAscending();
+        final Comparator<E> byField = (e1, e2) -> compareNullsLast((Comparable) ReflectionUtil.get(e1, field),
+                                                                   (Comparable) ReflectionUtil.get(e2, field));
+        final Comparator<E> byUuid = (e1, e2) -> compareNullsLast(e1.getUuid(), e2.getUuid());
+        final Comparator<E> c = resultPage.isKeyset() ? byField.thenComparing(byUuid) : byField;
+        return asc ? c : c.reversed();
+    }
+
+    private static int compareNullsLast(Comparable v1, Comparable v2) {
+        if (v1 == null) return v2 == null ? 0 : 1;
+        if (v2 == null) return -1;
+        return v1.compareTo(v2);
+    }
+
+}
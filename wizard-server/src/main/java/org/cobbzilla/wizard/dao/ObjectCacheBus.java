@@ -0,0 +1,72 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
+import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
+
+/**
+ * Propagates AbstractCRUDDAO object cache flushes to every node sharing the same redis.
+ * Each DAO that enables the bus registers itself here; when any node flushes its object cache,
+ * an ObjectCacheFlushEvent is published and every other node flushes the same (sub-)cache locally.
+ */
+@Slf4j
+public class ObjectCacheBus {
+
+    public static final String CHANNEL = "dao-object-cache-flush";
+
+    // identifies this JVM, so we can ignore our own events
+    public static final String NODE = UUID.randomUUID().toString();
+
+    private static final Map<RedisService, ObjectCacheBus> buses = new ConcurrentHashMap<>();
+
+    public static ObjectCacheBus register(RedisService redis, AbstractCRUDDAO dao) {
+        final ObjectCacheBus bus = buses.computeIfAbsent(redis, ObjectCacheBus::new);
+        bus.daos.computeIfAbsent(dao.getEntityClass().getName(), k -> ConcurrentHashMap.newKeySet()).add(dao);
+        return bus;
+    }
+
+    private final RedisService redis;
+    private final Map<String, Set<AbstractCRUDDAO>> daos = new ConcurrentHashMap<>();
+
+    private ObjectCacheBus(RedisService redis) {
+        this.redis = redis;
+        // flush everything when (re)subscribing, since we may have missed events while disconnected
+        redis.subscribe(CHANNEL, this::receive, this::flushAll);
+    }
+
+    public void publish(Class<?> entityClass, String subCacheKey, Collection<String> keys) {
+        try {
+            final List<String> keyList = keys == null ? null : new ArrayList<>(keys);
+            redis.publish(CHANNEL, toJsonOrDie(new ObjectCacheFlushEvent(NODE, entityClass.getName(), subCacheKey, keyList)));
+        } catch (Exception e) {
+            log.warn("publish("+entityClass.getName()+", "+subCacheKey+"): "+e);
+        }
+    }
+
+    private void receive(String message) {
+        final ObjectCacheFlushEvent event = fromJsonOrDie(message, ObjectCacheFlushEvent.class);
+        if (NODE.equals(event.getNode())) return;
+
+        final Set<AbstractCRUDDAO> targets = daos.get(event.getEntityClass());
+        if (targets == null) return;
+        for (AbstractCRUDDAO dao : targets) {
+            if (event.hasSubCacheKey() || event.getKeys() != null) {
+                dao.flushLocalObjectCache(event.getSubCacheKey(), event.getKeys());
+            } else {
+                dao.flushLocalObjectCache();
+            }
+        }
+    }
+
+    private void flushAll() {
+        for (Set<AbstractCRUDDAO> targets : daos.values()) {
+            for (AbstractCRUDDAO dao : targets) dao.flushLocalObjectCache();
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.util.List;
+
+@NoArgsConstructor @AllArgsConstructor @Accessors(chain=true)
+public class ObjectCacheFlushEvent {
+
+    @Getter @Setter private String node;
+    @Getter @Setter private String entityClass;
+
+    // if null, the entire object cache is flushed
+    @Getter @Setter private String subCacheKey;
+    public boolean hasSubCacheKey () { return subCacheKey != null; }
+
+    // if null, every key in the sub-cache is flushed
+    @Getter @Setter private List<String> keys;
+
+}
@@ -0,0 +1,24 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * A snapshot of the object cache counters shared by all AbstractCRUDDAOs.
+ * For per-DAO counts, see AbstractCRUDDAO.getObjectCacheStats
+ */
+@NoArgsConstructor @AllArgsConstructor @ToString
+public class ObjectCacheMetrics {
+
+    @Getter private long hits;
+    @Getter private long misses;
+    @Getter private long totalLoadTime;
+
+    public long getAverageLoadTime() { return misses == 0 ? 0 : totalLoadTime / misses; }
+
+    // estimated time saved by the cache, assuming each hit would have cost an average load
+    public long getTimeSaved() { return hits * getAverageLoadTime(); }
+
+}
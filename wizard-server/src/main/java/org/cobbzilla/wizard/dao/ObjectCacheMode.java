@@ -0,0 +1,22 @@
+package org.cobbzilla.wizard.dao;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * How AbstractCRUDDAO.cacheLookup protects cached values from being modified by callers.
+ */
+public enum ObjectCacheMode {
+
+    // each hit returns a copy made with ReflectionUtil.mirror
+    mirror,
+
+    // each hit returns a copy made with a FieldCopier, which resolves the fields to copy once per class
+    snapshot,
+
+    // a copy is stored once, collections are made unmodifiable, and every hit returns that same instance.
+    // callers must treat the returned objects as read-only.
+    shared;
+
+    @JsonCreator public static ObjectCacheMode fromString (String val) { return valueOf(val.toLowerCase()); }
+
+}
@@ -3,20 +3,29 @@ package org.cobbzilla.wizard.dao;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.collection.NameAndValue;
 import org.cobbzilla.util.jdbc.ResultSetBean;
+import org.cobbzilla.util.jdbc.UncheckedSqlException;
 import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.model.FilterableSqlViewSearchResult;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.search.ResultPage;
+import org.cobbzilla.wizard.model.search.ResultPage.CountMode;
 import org.cobbzilla.wizard.model.search.SqlViewField;
 import org.cobbzilla.wizard.model.search.SqlViewSearchResult;
 import org.cobbzilla.wizard.server.config.RestServerConfiguration;
 import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
 
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.lang.Integer.min;
 import static org.cobbzilla.util.daemon.Await.awaitAll;
@@ -32,6 +41,11 @@ public class SqlViewSearchHelper {
 
     public static final long SEARCH_TIMEOUT =  TimeUnit.SECONDS.toMillis(20);
 
+    public static final int COUNT_THREADS = 20;
+    private static final ExecutorService countPool = fixedPool(COUNT_THREADS);
+
+    private static final Pattern PLAN_ROWS = Pattern.compile("rows=(\\d+)");
+
     public static <E extends Identifiable, R extends SqlViewSearchResult>
     SearchResults<E> search(SqlViewSearchableDAO<E> dao,
                             ResultPage resultPage,
@@ -68,6 +82,7 @@ public class SqlViewSearchHelper {
             sortedField = sort.split(" ")[0];
         }
 
+        final CountMode countMode = resultPage.getCountMode();
         final String offset;
         final String limit;
         final String sortClause;
@@ -77,7 +92,8 @@ public class SqlViewSearchHelper {
             sortClause = "";
         } else {
             offset = " OFFSET " + resultPage.getPageOffset();
-            limit = " LIMIT " + resultPage.getPageSize();
+            // in 'none' mode, fetch one extra row to learn whether there is another page
+            limit = " LIMIT " + (countMode == CountMode.none ? resultPage.getPageSize() + 1 : resultPage.getPageSize());
             sortClause = " ORDER BY "  + sort;
         }
 
@@ -86,9 +102,17 @@ public class SqlViewSearchHelper {
         Integer totalCount = null;
         final ArrayList<E> thingsList = new ArrayList<>();
 
+        CountQuery count = null;
+        Future<Integer> countFuture = null;
         try {
             final Object[] args = params.toArray();
 
+            // start counting while the page query runs
+            if (!searchByEncryptedField && countMode != CountMode.none) {
+                count = new CountQuery(configuration, sql.toString(), args, countMode == CountMode.estimate);
+                countFuture = countPool.submit(count);
+            }
+
             final ResultSetBean rs = configuration.execSql(query, args);
             final List<Future<?>> results = new ArrayList<>(rs.rowCount());
             final ExecutorService exec = searchByEncryptedField ? fixedPool(Math.min(16, rs.rowCount())) : null;
@@ -114,8 +138,13 @@ public class SqlViewSearchHelper {
             }
 
             if (!searchByEncryptedField) {
-                totalCount = configuration.execSql("select count(*) "+sql.toString(), args).countOrZero();
-                return new SearchResults<>(thingsList, totalCount);
+                if (countMode == CountMode.none) {
+                    final boolean more = thingsList.size() > resultPage.getPageSize();
+                    if (more) thingsList.remove(thingsList.size()-1);
+                    return new SearchResults<>(thingsList, null).setMore(more);
+                }
+                totalCount = countFuture.get(SEARCH_TIMEOUT, TimeUnit.MILLISECONDS);
+                return new SearchResults<>(thingsList, totalCount).setTotalCountEstimated(countMode == CountMode.estimate);
             }
 
             // wait for encrypted rows to populate
@@ -162,7 +191,89 @@ public class SqlViewSearchHelper {
 
         } catch (Exception e) {
             return die("search: "+e, e);
+
+        } finally {
+            // if the page query failed or the count timed out, interrupting the task does not stop a running query:
+            // cancel the statement on the server too, so its connection goes back to the pool
+            if (count != null) count.cancel();
+            if (countFuture != null) countFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Counts (or estimates) the rows of a search on countPool. The statement runs with a query timeout of
+     * SEARCH_TIMEOUT and can be cancelled from the searching thread with cancel().
+     */
+    private static class CountQuery implements Callable<Integer> {
+
+        private final RestServerConfiguration configuration;
+        private final String fromClause;
+        private final Object[] args;
+        private final boolean estimate;
+
+        private final AtomicReference<Statement> running = new AtomicReference<>();
+        private volatile boolean cancelled = false;
+
+        CountQuery(RestServerConfiguration configuration, String fromClause, Object[] args, boolean estimate) {
+            this.configuration = configuration;
+            this.fromClause = fromClause;
+            this.args = args;
+            this.estimate = estimate;
+        }
+
+        @Override public Integer call() {
+            try {
+                return estimate
+                        ? estimateCount(configuration, fromClause, args, this::started)
+                        : configuration.execSql("select count(*) " + fromClause, args, this::started).countOrZero();
+            } finally {
+                running.set(null);
+            }
+        }
+
+        private void started(Statement statement) {
+            try {
+                statement.setQueryTimeout((int) TimeUnit.MILLISECONDS.toSeconds(SEARCH_TIMEOUT));
+            } catch (SQLException e) {
+                throw new UncheckedSqlException(e);
+            }
+            running.set(statement);
+            if (cancelled) cancel(); // cancelled before the statement was handed to us
+        }
+
+        public void cancel() {
+            cancelled = true;
+            final Statement statement = running.getAndSet(null);
+            if (statement == null) return;
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                log.warn("CountQuery.cancel: "+e);
+            }
+        }
+    }
+
+    /**
+     * Use the Postgres planner's row estimate instead of counting. This is usually close for simple filters,
+     * and costs only planning time. Falls back to an exact count if the plan cannot be parsed.
+     */
+    public static Integer estimateCount(RestServerConfiguration configuration, String fromClause, Object[] args) {
+        return estimateCount(configuration, fromClause, args, null);
+    }
+
+    private static Integer estimateCount(RestServerConfiguration configuration, String fromClause, Object[] args,
+                                         Consumer<Statement> onExecute) {
+        final ResultSetBean plan = configuration.execSql("explain select 1 " + fromClause, args, onExecute);
+        if (plan.rowCount() > 0) {
+            final Object firstLine = plan.getRows().get(0).values().iterator().next();
+            final Matcher m = firstLine == null ? null : PLAN_ROWS.matcher(firstLine.toString());
+            if (m != null && m.find()) {
+                final long rows = Long.parseLong(m.group(1));
+                return rows > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) rows;
+            }
         }
+        log.warn("estimateCount: could not parse plan, counting instead: "+fromClause);
+        return configuration.execSql("select count(*) " + fromClause, args, onExecute).countOrZero();
     }
 
     private static <E extends Identifiable> int compareSelectedItems(E o1, E o2, SqlViewField field) {
@@ -1,19 +1,24 @@
 package org.cobbzilla.wizard.dao.shard;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.collection.SingletonList;
-import org.cobbzilla.util.collection.mappy.MappyList;
 import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.cobbzilla.util.system.Sleep;
 import org.cobbzilla.wizard.cache.redis.HasRedisConfiguration;
 import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.dao.DAO;
+import org.cobbzilla.wizard.dao.KeysetPagination;
 import org.cobbzilla.wizard.dao.SearchResults;
+import org.cobbzilla.wizard.dao.shard.cache.ShardBloomFilter;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableFindByUnique2FieldFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableFindByUnique3FieldFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableIdentityFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableUniqueFieldFinder;
 import org.cobbzilla.wizard.dao.shard.task.*;
+import org.cobbzilla.wizard.model.IdentifiableBase;
 import org.cobbzilla.wizard.model.search.ResultPage;
 import org.cobbzilla.wizard.model.shard.ShardIO;
 import org.cobbzilla.wizard.model.shard.ShardMap;
@@ -26,6 +31,8 @@ import org.cobbzilla.wizard.server.config.DatabaseConfiguration;
 import org.cobbzilla.wizard.server.config.HasDatabaseConfiguration;
 import org.cobbzilla.wizard.server.config.RestServerConfiguration;
 import org.cobbzilla.wizard.server.config.ShardSetConfiguration;
+import org.cobbzilla.wizard.util.FieldCopier;
+import org.cobbzilla.wizard.util.SortedMerge;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.transaction.annotation.Transactional;
@@ -34,12 +41,19 @@ import javax.validation.Valid;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
 import static org.cobbzilla.util.reflect.ReflectionUtil.*;
-import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
 import static org.cobbzilla.wizard.resources.ResourceUtil.timeoutEx;
+import static org.cobbzilla.wizard.resources.ResourceUtil.unavailableEx;
 import static org.cobbzilla.util.daemon.Await.awaitAndCollect;
 import static org.cobbzilla.util.daemon.Await.awaitFirst;
 import static org.cobbzilla.wizard.util.SpringUtil.autowire;
@@ -61,6 +75,26 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Getter(lazy=true) private final RedisService shardCache = initShardCache();
     private RedisService initShardCache() { return redisService.prefixNamespace("shard-cache-"+getEntityClass().getName()); }
 
+    // In-process L1 cache in front of the redis shard cache. Disabled by default. Entries are flushed along with
+    // the redis cache, but only on this node, so keep the timeout short when other nodes write the same entities.
+    protected long getLocalCacheMaxSize() { return 0; }
+    protected long getLocalCacheTimeoutSeconds() { return TimeUnit.MINUTES.toSeconds(1); }
+
+    @Getter(lazy=true) private final Cache<String, Object> localShardCache = initLocalShardCache();
+    private Cache<String, Object> initLocalShardCache() {
+        if (getLocalCacheMaxSize() <= 0) return null;
+        return CacheBuilder.newBuilder()
+                .maximumSize(getLocalCacheMaxSize())
+                .expireAfterWrite(getLocalCacheTimeoutSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public CacheStats getLocalShardCacheStats() {
+        final Cache<String, Object> localCache = getLocalShardCache();
+        return localCache == null ? null : localCache.stats();
+    }
+
     @Getter private final Class<E> entityClass;
     @Getter private final Class<D> singleShardDaoClass;
     @Getter private final String hashOn;
@@ -69,9 +103,24 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     private final Map<ShardMap, D> daos = new ConcurrentHashMap<>();
 
-    private static final long DAO_MAP_CLEAN_INTERVAL = TimeUnit.DAYS.toMillis(1);
-    private final AtomicLong daosLastCleaned = new AtomicLong(0);
-    private void cleanDaoMap() { new DaoMapCleaner<>(daos, getShardDAO()).start(); }
+    // once a new routing table is in place, DAOs for shards it no longer routes to are retired after this long
+    protected long getDaoRetireDelay() { return 2 * DEFAULT_SHARD_QUERY_TIMEOUT; }
+
+    private void cleanDaoMap() {
+        new DaoMapCleaner<>(daos, () -> routingTable.get().getShardMaps(), getDaoRetireDelay(), this::retireDAO).start();
+    }
+
+    private void retireDAO(ShardMap map, D dao) {
+        if (!daos.remove(map, dao)) return;
+        final Map<ShardMap, FutureTask<SingleShardDAO>> shardCache = globalCache.get(singleShardDaoClass.getName());
+        if (shardCache != null) shardCache.computeIfPresent(map, (m, build) -> built(build) == dao ? null : build);
+        final ShardBulkhead bulkhead = bulkheads.remove(map);
+        if (bulkhead != null) bulkhead.shutdown();
+        readMetrics.remove(map);
+        writeMetrics.remove(map);
+        log.info("retireDAO: retiring "+map);
+        dao.cleanup();
+    }
 
     public static final long DEFAULT_SHARD_QUERY_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
     public long getShardQueryTimeout (String method) { return DEFAULT_SHARD_QUERY_TIMEOUT; }
@@ -80,8 +129,61 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     public static final int DEFAULT_MAX_QUERY_THREADS = 100;
     protected int getMaxQueryThreads () { return DEFAULT_MAX_QUERY_THREADS; }
 
-    private final BlockingQueue<Runnable> queryWorkerQueue = new LinkedBlockingQueue<>();
-    private final ThreadPoolExecutor queryWorkerPool = new ThreadPoolExecutor(getMaxQueryThreads()/2, getMaxQueryThreads(), 10, TimeUnit.MINUTES, queryWorkerQueue);
+    // runs fan-out work that waits on shards without querying one itself: hedged reads per replica set, batched writes
+    @Getter(lazy=true) private final ThreadPoolExecutor coordinatorPool = initCoordinatorPool();
+    private ThreadPoolExecutor initCoordinatorPool() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(getMaxQueryThreads(), getMaxQueryThreads(), 10, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // shard queries run on a bounded pool per shard, so one slow shard cannot take every query thread
+    protected int getShardQueryThreads() { return 10; }
+    protected int getShardQueryQueueSize() { return 100; }
+
+    // after this many consecutive failures a shard is skipped until the cool-down has passed
+    protected int getShardCircuitFailures() { return 5; }
+    protected long getShardCircuitCoolDown() { return TimeUnit.SECONDS.toMillis(30); }
+
+    private final Map<ShardMap, ShardBulkhead> bulkheads = new ConcurrentHashMap<>();
+    public Map<ShardMap, ShardBulkhead> getShardBulkheads() { return Collections.unmodifiableMap(bulkheads); }
+
+    protected ShardBulkhead bulkhead(D dao) {
+        return bulkheads.computeIfAbsent(dao.getShard(), m -> new ShardBulkhead(m, getShardQueryThreads(), getShardQueryQueueSize(),
+                                                                                 getShardCircuitFailures(), getShardCircuitCoolDown()));
+    }
+
+    // a shard that is rejecting work (circuit open or queue full) fails the whole fan-out: leaving it out would
+    // return partial totals/lists, or a null from queryShardsUnique that the finder cache would keep as a miss
+    private <T> void submitQuery(List<Future<T>> futures, D dao, Callable<T> task, String ctx) {
+        try {
+            futures.add(bulkhead(dao).submit(task));
+        } catch (RejectedExecutionException e) {
+            log.warn(ctx+": shard rejected query: "+e.getMessage());
+            for (Future<T> f : futures) f.cancel(true);
+            throw unavailableEx();
+        }
+    }
+
+    // writes to shards that replicate the same logical range run concurrently on their own pool
+    public static final int DEFAULT_MAX_WRITE_THREADS = 50;
+    protected int getMaxWriteThreads () { return DEFAULT_MAX_WRITE_THREADS; }
+
+    @Getter(lazy=true) private final ThreadPoolExecutor writeWorkerPool = initWriteWorkerPool();
+    private ThreadPoolExecutor initWriteWorkerPool() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(getMaxWriteThreads(), getMaxWriteThreads(), 10, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    protected ShardWriteConsistency getWriteConsistency() { return ShardWriteConsistency.all; }
+
+    // with quorum/one consistency, how often a failed replica write is retried in the background
+    protected int getWriteRetries() { return 3; }
+    protected long getWriteRetryDelay() { return TimeUnit.SECONDS.toMillis(1); }
+
+    private final Map<ShardMap, ShardWriteMetrics> writeMetrics = new ConcurrentHashMap<>();
+    public Map<ShardMap, ShardWriteMetrics> getShardWriteMetrics() { return Collections.unmodifiableMap(writeMetrics); }
 
     protected ApplicationContext getApplicationContext(DatabaseConfiguration database) {
 
@@ -102,6 +204,9 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     protected String getSpringShardContextPath() { return "spring-shard.xml"; }
 
+    // shard contexts resolve sharded DAOs from the server's context, so they cannot be built before it exists
+    boolean hasServerContext() { return server != null && server.getApplicationContext() != null; }
+
     public abstract ShardSetConfiguration getShardConfiguration();
     protected abstract DatabaseConfiguration getMasterDbConfiguration();
     protected abstract ShardMapDAO getShardDAO();
@@ -137,37 +242,47 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         }
     }
 
-    protected List<D> getAllDAOs(Serializable id) {
-        final List shards = getShardDAO().getShardList(getShardConfiguration().getName(), getLogicalShard(id));
-        if (shards.isEmpty()) shards.add(getDefaultShardMap());
-        return toDAOs(shards);
+    private final AtomicReference<ShardRoutingTable<D>> routingTable = new AtomicReference<>();
+
+    protected ShardRoutingTable<D> getRoutingTable() {
+        final ShardMapDAO shardDAO = getShardDAO();
+        final long version = shardDAO.getCacheVersion();
+        ShardRoutingTable<D> table = routingTable.get();
+        if (table == null || table.getVersion() != version) {
+            synchronized (routingTable) {
+                table = routingTable.get();
+                if (table == null || table.getVersion() != version) {
+                    final String shardSet = getShardConfiguration().getName();
+                    table = new ShardRoutingTable<>(version,
+                                                    getShardConfiguration().getLogicalShards(),
+                                                    shardDAO.findReadShards(shardSet),
+                                                    shardDAO.findWriteShards(shardSet),
+                                                    this::getDefaultShardMap,
+                                                    this::toDAO);
+                    final ShardRoutingTable<D> previous = routingTable.getAndSet(table);
+                    // the new table is already live, so nothing new can pick up a retired DAO
+                    if (previous != null && !table.getShardMaps().containsAll(previous.getShardMaps())) cleanDaoMap();
+                }
+            }
+        }
+        return table;
     }
 
-    protected List<D> getAllDAOs() {
-        final List shards = getShardDAO().findAllShards(getShardConfiguration().getName());
-        if (shards.isEmpty()) shards.add(getDefaultShardMap());
-        return toDAOs(shards);
+    protected List<D> getAllDAOs(Serializable id) {
+        final ShardRoutingTable<D> table = getRoutingTable();
+        return table.getDAOs(table.getLogicalShard(id.toString()));
     }
 
+    protected List<D> getAllDAOs() { return getRoutingTable().getAllDAOs(); }
+
     protected List<D> getAllDAOs(E entity) { return getAllDAOs((Serializable) getIdToHash(entity)); }
 
     protected List<D> getDAOs(Serializable id, ShardIO shardIO) {
-        List<ShardMap> shardMaps = getShardDAO().getShardList(getShardConfiguration().getName(), getLogicalShard(id), shardIO);
-        if (shardMaps.isEmpty()) shardMaps = new SingletonList<>(getDefaultShardMap());
-        final List<D> found = toDAOs(shardMaps);
-        return found;
+        final ShardRoutingTable<D> table = getRoutingTable();
+        return table.getDAOs(table.getLogicalShard(id.toString()), shardIO);
     }
 
-    protected List<D> getDAOs(ShardIO shardIO) {
-        List<ShardMap> shards;
-        switch (shardIO) {
-            case read: shards = getReadShards(); break;
-            case write: shards = getWriteShards(); break;
-            default: return die("getDAOs: invalid shardIO: "+shardIO);
-        }
-        if (shards.isEmpty()) shards = new SingletonList<>(getDefaultShardMap());
-        return toDAOs(shards);
-    }
+    protected List<D> getDAOs(ShardIO shardIO) { return getRoutingTable().getDAOs(shardIO); }
 
     protected List<D> getDAOs(E entity, ShardIO shardIO) {
         final Object value = getIdToHash(entity);
@@ -176,15 +291,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     }
 
     protected int getLogicalShard(Serializable id) {
-        final String hash = sha256_hex(id.toString()).substring(0, 7);
-        Long val;
-        try {
-            val = Long.valueOf(hash, 16);
-        } catch (NumberFormatException e) {
-            log.warn("getLogicalShard: invalid hex value: "+hash+" (returning 0): "+e);
-            return 0;
-        }
-        return (int) (Math.abs(val) % getShardConfiguration().getLogicalShards());
+        return ShardRoutingTable.logicalShard(id.toString(), getShardConfiguration().getLogicalShards());
     }
 
     protected List<D> toDAOs(Collection<ShardMap> shardMaps) {
@@ -194,58 +301,75 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     }
 
     private D toDAO(ShardMap shardMap) {
-        if (now() - daosLastCleaned.get() > DAO_MAP_CLEAN_INTERVAL) {
-            cleanDaoMap();
-            daosLastCleaned.set(now());
-        }
-        D dao = daos.get(shardMap);
-        if (dao == null) {
-            synchronized (daos) {
-                dao = buildDAO(shardMap, singleShardDaoClass);
-                daos.put(shardMap, dao);
+        final D dao = daos.get(shardMap);
+        if (dao != null) return dao;
+        final D built = buildDAO(shardMap, singleShardDaoClass);
+        final D existing = daos.putIfAbsent(shardMap, built);
+        return existing != null ? existing : built;
+    }
+
+    /** build the DAOs for shardMaps in parallel, so startup does not pay for each shard's pool and session factory in turn */
+    protected void buildDAOs(Collection<ShardMap> shardMaps) {
+        final List<Future<D>> futures = new ArrayList<>(shardMaps.size());
+        for (ShardMap map : shardMaps) futures.add(getCoordinatorPool().submit(() -> toDAO(map)));
+        for (Future<D> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                die("buildDAOs: "+e, e);
             }
         }
-        return dao;
     }
 
-    private static final Map<String, Map<ShardMap, SingleShardDAO>> globalCache = new ConcurrentHashMap<>();
-    private D buildDAO(ShardMap map, Class<D> singleShardDaoClass) {
+    // per single-shard DAO class and shard map, the build of its DAO. the map only ever holds the future: the first
+    // caller runs the build outside of any map lock, and everyone else asking for the same shard waits on it
+    private static final Map<String, Map<ShardMap, FutureTask<SingleShardDAO>>> globalCache = new ConcurrentHashMap<>();
 
-        final String shardClass = singleShardDaoClass.getName();
-        Map<ShardMap, SingleShardDAO> shardCache = globalCache.get(shardClass);
-        if (shardCache == null) {
-            synchronized (globalCache) {
-                shardCache = globalCache.get(shardClass);
-                if (shardCache == null) {
-                    shardCache = new ConcurrentHashMap<>();
-                    globalCache.put(shardClass, shardCache);
-                }
-            }
+    private D buildDAO(ShardMap map, Class<D> singleShardDaoClass) {
+        final Map<ShardMap, FutureTask<SingleShardDAO>> shardCache = globalCache.computeIfAbsent(singleShardDaoClass.getName(), k -> new ConcurrentHashMap<>());
+        final FutureTask<SingleShardDAO> task = new FutureTask<>(() -> newDAO(map, singleShardDaoClass));
+        final FutureTask<SingleShardDAO> existing = shardCache.putIfAbsent(map, task);
+        final FutureTask<SingleShardDAO> build = existing != null ? existing : task;
+        if (existing == null) task.run();
+        try {
+            return (D) build.get();
+        } catch (InterruptedException e) {
+            return die("buildDAO("+map+"): interrupted");
+        } catch (ExecutionException e) {
+            shardCache.remove(map, build); // a failed build is not remembered, the next caller tries again
+            final Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            return die("buildDAO("+map+"): "+cause, e);
         }
+    }
 
-        SingleShardDAO dao = shardCache.get(map);
-        if (dao == null) {
-            //noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized (shardCache) {
-                dao = shardCache.get(map);
-                if (dao == null) {
-                    // Wire-up the DAO's database and hibernateTemplate to point to the shard DB
-                    final DatabaseConfiguration database = getMasterDbConfiguration().getShardDatabaseConfiguration(map);
-                    final ApplicationContext ctx = getApplicationContext(database);
-                    dao = autowire(ctx, instantiate(singleShardDaoClass));
-                    dao.initialize(map);
-                    shardCache.put(map, dao);
-                    log.debug("buildDAO(" + map + "): using new value for " + getEntityClass().getSimpleName());
-                } else {
-                    log.debug("buildDAO(" + map + "): using cached value for " + getEntityClass().getSimpleName());
-                }
-            }
+    private SingleShardDAO newDAO(ShardMap map, Class<D> singleShardDaoClass) {
+        // Wire-up the DAO's database and hibernateTemplate to point to the shard DB. The context (connection pool
+        // and session factory) is shared by every DAO class that uses the same shard database
+        final DatabaseConfiguration database = getMasterDbConfiguration().getShardDatabaseConfiguration(map);
+        final String contextKey = getSpringShardContextPath()+":"+database.getUser()+"@"+database.getUrl();
+        final ApplicationContext ctx = ShardContexts.acquire(contextKey, () -> getApplicationContext(database));
+        final SingleShardDAO dao = autowire(ctx, instantiate(singleShardDaoClass));
+        dao.initialize(map);
+        log.debug("buildDAO(" + map + "): using new value for " + getEntityClass().getSimpleName());
+        return dao;
+    }
+
+    // the DAO a finished build produced, or null if it is still running or failed
+    private static SingleShardDAO built(Future<SingleShardDAO> build) {
+        if (!build.isDone() || build.isCancelled()) return null;
+        try {
+            return build.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
         }
-        return (D) dao;
     }
 
     public D getDAO(Serializable id) { return getDAO(id, ShardIO.read); }
-    protected D getDAO(Serializable id, ShardIO shardIO) { return pickRandom(getDAOs(id, shardIO)); }
+    protected D getDAO(Serializable id, ShardIO shardIO) {
+        final List<D> daos = getDAOs(id, shardIO);
+        return shardIO == ShardIO.read ? pickReplica(daos) : pickRandom(daos);
+    }
 
     protected D getDAO(E entity) { return getDAO(entity, ShardIO.read); }
     protected D getDAO(E entity, ShardIO shardIO) {
@@ -258,31 +382,206 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     @Transactional(readOnly=true)
     public List<D> getNonOverlappingDAOs() {
-        List<ShardMap> shards = getReadShards();
-        if (shards.isEmpty()) {
-            shards = new SingletonList<>(getDefaultShardMap());
-        } else {
-            final MappyList<ShardRange, ShardMap> nonOverlapping = new MappyList<>();
-            for (ShardMap shard : shards) {
-                nonOverlapping.put(shard.getRange(), shard);
+        final List<List<D>> replicaSets = getRoutingTable().getReadReplicaSets();
+        final List<D> daos = new ArrayList<>(replicaSets.size());
+        for (List<D> replicas : replicaSets) daos.add(pickReplica(replicas));
+        return daos;
+    }
+
+    // reads: replicas are chosen by power-of-two-choices on ShardReadMetrics scores, and optionally hedged
+    private final Map<ShardMap, ShardReadMetrics> readMetrics = new ConcurrentHashMap<>();
+    public Map<ShardMap, ShardReadMetrics> getShardReadMetrics() { return Collections.unmodifiableMap(readMetrics); }
+    protected ShardReadMetrics readMetrics(D dao) { return readMetrics.computeIfAbsent(dao.getShard(), k -> new ShardReadMetrics()); }
+
+    protected D pickReplica(List<D> replicas) {
+        if (replicas.size() == 1) return replicas.get(0);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int i = random.nextInt(replicas.size());
+        int j = random.nextInt(replicas.size() - 1);
+        if (j >= i) j++;
+        final D a = replicas.get(i);
+        final D b = replicas.get(j);
+        return replicaScore(a) <= replicaScore(b) ? a : b;
+    }
+
+    private double replicaScore(D dao) {
+        final ShardBulkhead bulkhead = bulkheads.get(dao.getShard());
+        return bulkhead != null && bulkhead.isOpen() ? Double.MAX_VALUE : readMetrics(dao).getScore();
+    }
+
+    // when enabled, a read that takes longer than the replica's p95 latency is also sent to another replica
+    protected boolean isHedgedReads() { return false; }
+    protected long getHedgeMinDelay() { return 5; }
+    protected long getHedgeDefaultDelay() { return 100; }
+    public static final int MIN_HEDGE_SAMPLES = 20;
+
+    protected long getHedgeDelay(D dao) {
+        final ShardReadMetrics metrics = readMetrics(dao);
+        if (metrics.getSampleCount() < MIN_HEDGE_SAMPLES) return getHedgeDefaultDelay();
+        return Math.max(getHedgeMinDelay(), (long) Math.ceil(metrics.getP95Latency() / 1000.0));
+    }
+
+    /** Read from one of the read replicas for id. Used by the finders and other lookups routed by the hashOn field */
+    public <T> T read(Serializable id, String ctx, Function<D, T> reader) {
+        return hedgedRead(getDAOs(id, ShardIO.read), ctx, reader);
+    }
+
+    protected <T> T hedgedRead(List<D> replicas, String ctx, Function<D, T> reader) {
+        final D primary = pickReplica(replicas);
+        if (!isHedgedReads() || replicas.size() == 1) return timedRead(primary, reader);
+
+        final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        final List<Future<T>> futures = new ArrayList<>(2);
+        final long deadline = now() + getShardQueryTimeout(ctx);
+        try {
+            Future<T> done = null;
+            try {
+                futures.add(submitRead(completed, primary, reader));
+                done = completed.poll(getHedgeDelay(primary), TimeUnit.MILLISECONDS);
+                if (done != null && !failed(done)) return done.get();
+            } catch (RejectedExecutionException e) {
+                log.warn(ctx+": primary replica rejected read: "+e.getMessage());
+            }
+
+            // the primary is slow, failed or unavailable: ask another replica too, and take whichever answers first
+            final List<D> others = new ArrayList<>(replicas);
+            others.remove(primary);
+            final D secondary = pickReplica(others);
+            try {
+                futures.add(submitRead(completed, secondary, reader));
+                readMetrics(primary).hedged();
+            } catch (RejectedExecutionException e) {
+                // no room for the hedge: wait on the primary alone, if it is still running
+                log.warn(ctx+": secondary replica rejected hedged read: "+e.getMessage());
+                if (futures.isEmpty()) throw unavailableEx();
             }
-            shards = new ArrayList<>();
-            for (ShardRange range : nonOverlapping.keySet()) {
-                shards.add(pickRandom(nonOverlapping.getAll(range)));
+
+            ExecutionException error = null;
+            if (done != null) {
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    error = e; // the primary failed, rethrown below if the secondary fails too or was rejected
+                }
             }
+            for (int pending = futures.size() - (done == null ? 0 : 1); pending > 0; pending--) {
+                done = completed.poll(Math.max(0, deadline - now()), TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    log.warn(ctx+": timed out waiting for hedged read");
+                    throw timeoutEx();
+                }
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    error = e;
+                }
+            }
+            final Throwable cause = error.getCause() == null ? error : error.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            return die(ctx+": "+cause, error);
+
+        } catch (InterruptedException | ExecutionException e) {
+            return die(ctx+": "+e, e);
+
+        } finally {
+            for (Future<T> f : futures) f.cancel(true);
+        }
+    }
+
+    // the read runs on the replica's bulkhead, and its future lands on completed when done
+    private <T> Future<T> submitRead(BlockingQueue<Future<T>> completed, D dao, Function<D, T> reader) {
+        final ShardBulkhead bulkhead = bulkhead(dao);
+        return new ExecutorCompletionService<T>(bulkhead, completed).submit(bulkhead.track(() -> timedRead(dao, reader)));
+    }
+
+    private boolean failed(Future<?> done) throws InterruptedException {
+        try {
+            done.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
         }
-        return toDAOs(shards);
+    }
+
+    private <T> T timedRead(D dao, Function<D, T> reader) {
+        final ShardReadMetrics metrics = readMetrics(dao);
+        final long start = metrics.start();
+        try {
+            final T result = reader.apply(dao);
+            metrics.success(start);
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                metrics.cancelled();
+            } else {
+                metrics.error();
+            }
+            throw e;
+        }
+    }
+
+    // runs a shard task with its latency recorded against the shard
+    private <T> Callable<T> timedTask(D dao, ShardTask task) {
+        return () -> timedRead(dao, d -> {
+            try {
+                return (T) task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                return die("timedTask: "+e, e);
+            }
+        });
     }
 
     public List<ShardMap> getReadShards()  { return getShardDAO().findReadShards(getShardConfiguration().getName()); }
     public List<ShardMap> getWriteShards() { return getShardDAO().findWriteShards(getShardConfiguration().getName()); }
     public List<ShardMap> getAllShards()   { return getShardDAO().findAllShards(getShardConfiguration().getName()); }
 
-    @Transactional(readOnly=true) // todo
-    @Override public SearchResults<E> search(ResultPage resultPage) { return notSupported(); }
+    @Transactional(readOnly=true)
+    @Override public SearchResults<E> search(ResultPage resultPage) { return search(resultPage, getEntityClass().getSimpleName()); }
+
+    @Transactional(readOnly=true)
+    @Override public SearchResults<E> search(ResultPage resultPage, String entityType) {
+        if (resultPage.getHasFields()) return notSupported("search: field projections are not supported across shards");
+
+        // each shard returns the first offset+pageSize rows of its own ordering, then we merge and cut out the page.
+        // with keyset paging every shard seeks past the previous page itself, so the offset is always zero
+        final int offset = resultPage.isKeyset() ? 0 : resultPage.getPageOffset();
+        final int end = (int) Math.min((long) offset + resultPage.getPageSize(), ResultPage.INFINITE);
+        final ResultPage shardPage = new ResultPage(resultPage).setPageNumber(1).setPageSize(end);
+
+        final ShardTaskFactory<E, D, SearchResults<E>> factory = new ShardSearchPageTask.Factory<>(shardPage, entityType);
+        final List<SearchResults<E>> shardResults;
+        try {
+            final List<Future<SearchResults<E>>> futures = new ArrayList<>();
+            for (D dao : getNonOverlappingDAOs()) {
+                submitQuery(futures, dao, (Callable<SearchResults<E>>) factory.newTask(dao), "search");
+            }
+            try {
+                shardResults = awaitAll(futures, getShardSearchTimeout());
+            } catch (TimeoutException e) {
+                log.warn("search: timed out");
+                throw timeoutEx();
+            }
+        } finally {
+            factory.cancelTasks();
+        }
 
-    @Transactional(readOnly=true) // todo
-    @Override public SearchResults<E> search(ResultPage resultPage, String entityType) { return notSupported(); }
+        long totalCount = 0;
+        final List<List<E>> lists = new ArrayList<>(shardResults.size());
+        for (SearchResults<E> r : shardResults) {
+            if (r.hasTotalCount()) totalCount += r.getTotalCount();
+            lists.add(r.getResults());
+        }
+        final List<E> merged = SortedMerge.merge(lists, KeysetPagination.<E>comparator(resultPage), end);
+        List<E> results = offset >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(offset, merged.size()));
+
+        // the caller may want the results filtered (remove sensitive fields)
+        if (resultPage.hasScrubber() && !results.isEmpty()) {
+            results = resultPage.getScrubber().scrub(results);
+        }
+        return new SearchResults<>(results, (int) Math.min(totalCount, Integer.MAX_VALUE));
+    }
 
     @Transactional(readOnly=true)
     @Override public E get(Serializable id) {
@@ -291,6 +590,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     @Transactional(readOnly=true)
     @Override public List<E> findAll() {
+        // still builds one big list, prefer stream() or iterate() for large tables
         final List<E> results = new ArrayList<>();
         for (D dao : getNonOverlappingDAOs()) {
             results.addAll(dao.findAll());
@@ -298,6 +598,52 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         return results;
     }
 
+    // rows fetched per round-trip by each shard's cursor, and rows buffered between the shards and the consumer
+    protected int getStreamFetchSize() { return 500; }
+    protected int getStreamQueueSize() { return 1000; }
+
+    // a stream whose consumer takes nothing for this long is treated as abandoned: its readers give up and free
+    // their threads, and the consumer gets an error if it ever comes back
+    protected long getStreamIdleTimeout() { return TimeUnit.MINUTES.toMillis(5); }
+
+    // stream readers hold a thread for as long as the consumer keeps reading, so they get their own pool
+    // instead of taking query threads from the shard bulkheads
+    public static final int DEFAULT_MAX_STREAM_THREADS = 20;
+    protected int getMaxStreamThreads() { return DEFAULT_MAX_STREAM_THREADS; }
+
+    @Getter(lazy=true) private final ThreadPoolExecutor streamPool = initStreamPool();
+    private ThreadPoolExecutor initStreamPool() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(getMaxStreamThreads(), getMaxStreamThreads(), 10, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Stream every entity from every shard. Shards are read in parallel through scrolling cursors, and readers block
+     * when the consumer falls behind, so memory use stays flat however large the tables are. Rows come in no
+     * particular order. Close the stream (try-with-resources) if you stop before the end; one that is left unread
+     * for getStreamIdleTimeout is closed by its readers.
+     */
+    public Stream<E> stream() {
+        final ShardStream<E> shards = new ShardStream<>(getStreamQueueSize(), getStreamIdleTimeout());
+        try {
+            for (D dao : getNonOverlappingDAOs()) {
+                shards.addShard(getStreamPool(), sink -> dao.iterate(getStreamFetchSize(), sink));
+            }
+        } catch (RuntimeException e) {
+            shards.close();
+            throw e;
+        }
+        return shards.stream();
+    }
+
+    /** pass every entity from every shard to consumer, see stream() */
+    public void iterate(Consumer<? super E> consumer) {
+        try (Stream<E> entities = stream()) {
+            entities.forEach(consumer);
+        }
+    }
+
     @Transactional(readOnly=true)
     @Override public E findByUuid(final String uuid) { return findByUniqueField("uuid", uuid); }
 
@@ -330,7 +676,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     @Override public List<E> findByField(String field, Object value) {
         if (hashOn.equals(field)) {
-            return getDAO((String) value).findByField(field, value);
+            return read((String) value, "findByField", dao -> dao.findByField(field, value));
         }
 
         // have to search all shards for it
@@ -346,7 +692,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     @Override public List<E> findByFieldEqualAndFieldLike(String eqField, Object eqValue, String likeField, String likeValue) {
         if (hashOn.equals(eqField)) {
-            return getDAO((String) eqValue).findByFieldEqualAndFieldLike(eqField, eqValue, likeField, likeValue);
+            return read((String) eqValue, "findByFieldEqualAndFieldLike", dao -> dao.findByFieldEqualAndFieldLike(eqField, eqValue, likeField, likeValue));
         }
 
         // have to search all shards for it
@@ -377,7 +723,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     public List<E> findByFields(String f1, Object v1, String f2, Object v2) {
         if (hashOn.equals(f1)) {
-            return getDAO((String) v1).findByFields(f1, v1, f2, v2);
+            return read((String) v1, "findByFields", dao -> dao.findByFields(f1, v1, f2, v2));
         }
 
         // have to search all shards for it
@@ -387,7 +733,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     public List<E> findByFields(String f1, Object v1, String f2, Object v2, String f3, Object v3) {
         if (hashOn.equals(f1)) {
-            return getDAO((String) v1).findByFields(f1, v1, f2, v2, f3, v3);
+            return read((String) v1, "findByFields", dao -> dao.findByFields(f1, v1, f2, v2, f3, v3));
         }
 
         // have to search all shards for it
@@ -398,8 +744,22 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         try {
             // Start iterator tasks on all DAOs
             final List<Future<E>> futures = new ArrayList<>();
-            for (D dao : getNonOverlappingDAOs()) {
-                futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+            if (isHedgedReads()) {
+                for (List<D> replicas : getRoutingTable().getReadReplicaSets()) {
+                    futures.add(getCoordinatorPool().submit(() -> hedgedRead(replicas, ctx, dao -> {
+                        try {
+                            return (E) factory.newTask(dao).call();
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            return die("queryShardsUnique: "+e, e);
+                        }
+                    })));
+                }
+            } else {
+                for (D dao : getNonOverlappingDAOs()) {
+                    submitQuery(futures, dao, this.<E>timedTask(dao, factory.newTask(dao)), ctx);
+                }
             }
 
             // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
@@ -420,7 +780,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
             // Start iterator tasks on all DAOs
             final List<Future<List>> futures = new ArrayList<>();
             for (D dao : getNonOverlappingDAOs()) {
-                futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+                submitQuery(futures, dao, this.<List>timedTask(dao, factory.newTask(dao)), ctx);
             }
 
             // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
@@ -447,14 +807,18 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
                 // Start iterator tasks on all DAOs
                 final List<Future<List>> futures = new ArrayList<>();
                 for (D dao : getNonOverlappingDAOs()) {
-                    futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+                    submitQuery(futures, dao, (Callable<List>) factory.newTask(dao), "search");
                 }
 
                 // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
                 final List<R> results;
                 try {
-                    final List unsorted = search.getCollector().await(futures, timeout);
-                    results = search.sort(unsorted);
+                    if (search.isSorted()) {
+                        // each shard returned its rows sorted, merge them into the collector in order until it is full
+                        results = search.collectMerged((List) awaitAll(futures, timeout));
+                    } else {
+                        results = search.getCollector().await(futures, timeout);
+                    }
                 } catch (TimeoutException e) {
                     log.warn("search: timed out");
                     throw timeoutEx();
@@ -467,6 +831,19 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         }
     }
 
+    private <T> List<T> awaitAll(List<Future<T>> futures, long timeout) throws TimeoutException {
+        final long deadline = now() + timeout;
+        final List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get(Math.max(0, deadline - now()), TimeUnit.MILLISECONDS));
+            } catch (InterruptedException | ExecutionException e) {
+                return die("awaitAll: "+e, e);
+            }
+        }
+        return results;
+    }
+
     @Transactional(readOnly=true)
     @Override public boolean exists(String uuid) { return get(uuid) != null; }
 
@@ -474,19 +851,113 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     @Override public E create(@Valid E entity) {
         entity.beforeCreate();
-        E rval = null;
-        Object ctx = null;
-        for (D dao : getDAOs(entity, ShardIO.write)) {
-            if (ctx == null) {
-                ctx = preCreate(entity);
+        final Object ctx = preCreate(entity);
+        bloomAdd(Collections.singletonList(entity));
+        final E created = writeReplicas(getDAOs(entity, ShardIO.write), "create", entity, FieldCopier::copyOf, SingleShardDAO::create,
+                                        () -> flushShardCache(entity.getUuid()));
+        postCreate(entity, ctx);
+        return created;
+    }
+
+    /**
+     * Create many entities at once. Entities are grouped by the write shards they route to, and each group is written
+     * in parallel, as one transaction and one jdbc-batched flush per shard.
+     * preCreate is called for each entity, but instead of postCreate, postCreateAll is called once for the batch.
+     */
+    public List<E> createAll(Collection<E> entities) {
+        if (empty(entities)) return new ArrayList<>();
+        final List<E> list = new ArrayList<>(entities);
+        final List<Object> contexts = new ArrayList<>(list.size());
+        for (E entity : list) {
+            entity.beforeCreate();
+            contexts.add(preCreate(entity));
+        }
+        bloomAdd(list);
+        writeAll(groupByShard(list, ShardIO.write), "createAll", SingleShardDAO::createAll);
+        return postCreateAll(list, contexts);
+    }
+
+    public List<E> postCreateAll(List<E> entities, List<Object> contexts) {
+        flushShardCache(IdentifiableBase.toUuidList(entities));
+        return entities;
+    }
+
+    /**
+     * Update many entities at once, grouped and written like createAll.
+     * preUpdate is called for each entity, but instead of postUpdate, postUpdateAll is called once for the batch.
+     * @return the updated entities, in the same order as they were passed in
+     */
+    public List<E> updateAll(Collection<E> entities) {
+        if (empty(entities)) return new ArrayList<>();
+        final List<E> list = new ArrayList<>(entities);
+        final List<Object> contexts = new ArrayList<>(list.size());
+        for (E entity : list) contexts.add(preUpdate(entity));
+        bloomAddChanged(list);
+
+        final Map<String, E> updated = new HashMap<>();
+        for (E e : writeAll(groupByShard(list, ShardIO.write), "updateAll", SingleShardDAO::updateAll)) updated.put(e.getUuid(), e);
+
+        final List<E> results = new ArrayList<>(list.size());
+        for (E entity : list) results.add(updated.getOrDefault(entity.getUuid(), entity));
+        return postUpdateAll(results, contexts);
+    }
+
+    public List<E> postUpdateAll(List<E> entities, List<Object> contexts) {
+        flushShardCache(IdentifiableBase.toUuidList(entities));
+        return entities;
+    }
+
+    protected Map<List<D>, List<E>> groupByShard(Collection<E> entities, ShardIO shardIO) {
+        final ShardRoutingTable<D> table = getRoutingTable();
+        final Map<List<D>, List<E>> groups = new HashMap<>();
+        for (E entity : entities) {
+            final Object value = getIdToHash(entity);
+            if (value == null) die("groupByShard: value of hashOn field ("+hashOn+") was null");
+            final List<D> daos = table.getDAOs(table.getLogicalShard(value.toString()), shardIO);
+            groups.computeIfAbsent(daos, k -> new ArrayList<>()).add(entity);
+        }
+        return groups;
+    }
+
+    // one task per group of shards, each group's entities are written to its replicas with writeReplicas.
+    // if any group fails or times out, the rest are cancelled and the cache is flushed for the whole batch here,
+    // since the caller will not get to postCreateAll/postUpdateAll
+    private List<E> writeAll(Map<List<D>, List<E>> groups, String ctx, BiFunction<D, List<E>, List<E>> write) {
+        final List<Future<List<E>>> futures = new ArrayList<>(groups.size());
+        final List<List<E>> entities = new ArrayList<>(groups.size());
+        boolean ok = false;
+        try {
+            for (Map.Entry<List<D>, List<E>> group : groups.entrySet()) {
+                final List<String> uuids = IdentifiableBase.toUuidList(group.getValue());
+                futures.add(getCoordinatorPool().submit(() -> writeReplicas(group.getKey(), ctx, group.getValue(), AbstractShardedDAO::copyAll, write,
+                                                                            () -> flushShardCache(uuids))));
+                entities.add(group.getValue());
             }
-            E created = dao.create(entity);
-            if (rval == null) {
-                rval = created;
-                postCreate(entity, ctx);
+            final List<E> written = new ArrayList<>();
+            try {
+                for (List<E> result : awaitAll(futures, getShardQueryTimeout(ctx))) {
+                    if (result != null) written.addAll(result);
+                }
+            } catch (TimeoutException e) {
+                log.warn(ctx+": timed out");
+                throw timeoutEx();
+            }
+            ok = true;
+            return written;
+
+        } finally {
+            if (!ok) {
+                for (Future<List<E>> f : futures) f.cancel(true);
+                // groups that failed or were cancelled may still have reached some of their replicas, flush them too
+                final List<String> uuids = new ArrayList<>();
+                for (List<E> group : entities) uuids.addAll(IdentifiableBase.toUuidList(group));
+                try {
+                    flushShardCache(uuids);
+                } catch (RuntimeException e) {
+                    log.warn(ctx+": error flushing shard cache after failed write: "+e);
+                }
             }
         }
-        return rval;
     }
 
     @Override public E createOrUpdate(@Valid E entity) {
@@ -501,20 +972,13 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Override public Object preUpdate(@Valid E entity) { return null; }
 
     @Override public E update(@Valid E entity) {
-        E rval = null;
-        Object ctx = null;
-        for (D dao : getDAOs(entity, ShardIO.write)) {
-            if (ctx == null) {
-                ctx = preUpdate(entity);
-                if (ctx == null) ctx = new Object();
-            }
-            E updated = dao.update(entity);
-            if (rval == null) {
-                rval = updated;
-                postUpdate(entity, ctx);
-            }
-        }
-        return rval;
+        Object ctx = preUpdate(entity);
+        if (ctx == null) ctx = new Object();
+        bloomAddChanged(Collections.singletonList(entity));
+        final E updated = writeReplicas(getDAOs(entity, ShardIO.write), "update", entity, FieldCopier::copyOf, SingleShardDAO::update,
+                                        () -> flushShardCache(entity.getUuid()));
+        postUpdate(entity, ctx);
+        return updated;
     }
 
     @Override public E postUpdate(E entity, Object context) {
@@ -523,8 +987,11 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     }
 
     @Override public void delete(String uuid) {
+        // the filters need the deleted values, only look the entity up when there are filters to update
+        final E deleting = empty(getBloomFilterFields()) ? null : get(uuid);
         final List<D> daos = hashOn.equals("uuid") ? getAllDAOs(uuid) : getAllDAOs();
-        for (D dao : daos) dao.delete(uuid);
+        writeReplicas(daos, "delete", uuid, u -> u, (dao, u) -> { dao.delete(u); return u; }, () -> flushShardCache(uuid));
+        if (deleting != null) bloomRemove(deleting);
         flushShardCache(uuid);
     }
 
@@ -534,26 +1001,244 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     public void deleteAll (String hashField, String value) {
         final List<D> daos = hashOn.equals(hashField) ? getAllDAOs(value) : getAllDAOs();
-        for (D dao : daos) {
-            dao.getHibernateTemplate().bulkUpdate(bulkDelete(hashField), value);
-        }
+        writeReplicas(daos, "deleteAll", value, v -> v, (dao, v) -> dao.getHibernateTemplate().bulkUpdate(bulkDelete(hashField), v));
     }
 
     protected String bulkDelete(String hashField) {
         return "DELETE " + getEntityClass().getSimpleName() + " x WHERE x." + hashField + " = ?";
     }
 
+    protected <P, T> T writeReplicas(List<D> daos, String ctx, P payload, UnaryOperator<P> copier, BiFunction<D, P, T> write) {
+        return writeReplicas(daos, ctx, payload, copier, write, null);
+    }
+
+    /**
+     * Write to every replica concurrently on the write pool, and wait for as many as getWriteConsistency requires.
+     * Each replica gets its own copy of the payload, so concurrent hibernate sessions never share an instance, and
+     * writes still running in the background never touch the caller's. With quorum/one consistency, the remaining
+     * replicas complete in the background, with retries. If the write fails or times out, the outstanding replica
+     * writes are cancelled.
+     * @param afterLagging if not null, run once the lagging replicas finish when this returned before they did. The
+     *                     caller flushes the shard cache after this returns, but a read in between can re-cache a value
+     *                     from a replica that has not been written yet, so the cache is flushed again here
+     * @return what the first replica to succeed returned
+     */
+    protected <P, T> T writeReplicas(List<D> daos, String ctx, P payload, UnaryOperator<P> copier, BiFunction<D, P, T> write,
+                                     Runnable afterLagging) {
+        if (daos.size() == 1) return timedWrite(daos.get(0), payload, write);
+
+        final ShardWriteConsistency consistency = getWriteConsistency();
+        final int required = consistency.required(daos.size());
+        final CompletionService<T> completion = new ExecutorCompletionService<>(getWriteWorkerPool());
+        final List<Future<T>> futures = new ArrayList<>(daos.size());
+        final AtomicInteger pending = new AtomicInteger(daos.size());
+        final AtomicBoolean returned = new AtomicBoolean(false);
+        for (D dao : daos) {
+            final P p = copier.apply(payload);
+            futures.add(completion.submit(() -> {
+                try {
+                    return consistency.isAsync() ? retryingWrite(dao, ctx, p, write) : timedWrite(dao, p, write);
+                } finally {
+                    // the last replica to finish, after the caller has moved on
+                    if (pending.decrementAndGet() == 0 && returned.get()) runAfterLagging(ctx, afterLagging);
+                }
+            }));
+        }
+
+        final long deadline = now() + getShardQueryTimeout(ctx);
+        T result = null;
+        int succeeded = 0;
+        int failed = 0;
+        boolean ok = false;
+        try {
+            while (succeeded < required) {
+                final Future<T> done;
+                try {
+                    done = completion.poll(Math.max(0, deadline - now()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return die(ctx+": interrupted waiting for shard writes");
+                }
+                if (done == null) {
+                    log.warn(ctx+": timed out with "+succeeded+" of "+required+" required shard writes done");
+                    throw timeoutEx();
+                }
+                try {
+                    final T r = done.get();
+                    if (succeeded++ == 0) result = r;
+                } catch (InterruptedException | ExecutionException e) {
+                    failed++;
+                    if (daos.size() - failed < required) {
+                        final Throwable cause = e.getCause() == null ? e : e.getCause();
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        if (cause instanceof Error) throw (Error) cause;
+                        return die(ctx+": "+failed+" of "+daos.size()+" shard writes failed: "+cause, (Exception) cause);
+                    }
+                }
+            }
+            ok = true;
+            return result;
+
+        } finally {
+            if (ok) {
+                // if every replica is already done, the caller's own flush comes after all of them
+                returned.set(true);
+            } else {
+                for (Future<T> f : futures) f.cancel(true);
+            }
+        }
+    }
+
+    private void runAfterLagging(String ctx, Runnable afterLagging) {
+        if (afterLagging == null) return;
+        try {
+            afterLagging.run();
+        } catch (RuntimeException e) {
+            log.warn(ctx+": error after lagging shard writes finished: "+e);
+        }
+    }
+
+    private <P, T> T timedWrite(D dao, P payload, BiFunction<D, P, T> write) {
+        final ShardWriteMetrics metrics = writeMetrics.computeIfAbsent(dao.getShard(), k -> new ShardWriteMetrics());
+        final long start = now();
+        try {
+            final T result = write.apply(dao, payload);
+            metrics.success(now() - start);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.error();
+            throw e;
+        }
+    }
+
+    private <P, T> T retryingWrite(D dao, String ctx, P payload, BiFunction<D, P, T> write) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return timedWrite(dao, payload, write);
+            } catch (RuntimeException e) {
+                if (attempt >= getWriteRetries()) {
+                    log.error(ctx+": giving up on shard "+dao.getShard()+" after "+(attempt+1)+" attempts: "+e, e);
+                    throw e;
+                }
+                log.warn(ctx+": retrying shard "+dao.getShard()+" (attempt "+(attempt+1)+"): "+e);
+                writeMetrics.get(dao.getShard()).retry();
+                Sleep.sleep(getWriteRetryDelay() * (attempt+1));
+            }
+        }
+    }
+
+    private static <E> List<E> copyAll(List<E> entities) {
+        final List<E> copies = new ArrayList<>(entities.size());
+        for (E e : entities) copies.add(FieldCopier.copyOf(e));
+        return copies;
+    }
+
+    // unique fields tracked in a counting bloom filter, so lookups for values that do not exist skip the shards.
+    // values are added on create and on an update that changes them (before the write), and removed on delete. after changing these,
+    // call rebuildBloomFilters: a filter is not consulted until it has been built from the existing rows
+    protected Collection<String> getBloomFilterFields() { return Collections.emptyList(); }
+    protected long getBloomFilterExpectedEntries() { return 1_000_000; }
+    protected double getBloomFilterFalsePositiveRate() { return 0.01; }
+
+    private final Map<String, ShardBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    public ShardBloomFilter getBloomFilter(String field) {
+        if (!getBloomFilterFields().contains(field)) return null;
+        return bloomFilters.computeIfAbsent(field, f -> new ShardBloomFilter(getShardCache(), getShardConfiguration().getName()+":bloom:"+f,
+                                                                             getBloomFilterExpectedEntries(), getBloomFilterFalsePositiveRate()));
+    }
+
+    /** @return false only if no entity has value for field */
+    public boolean mightExist(String field, Object value) {
+        if (value == null) return true;
+        final ShardBloomFilter filter = getBloomFilter(field);
+        return filter == null || filter.mightContain(value.toString());
+    }
+
+    private void bloomAdd(Collection<E> entities) {
+        for (String field : getBloomFilterFields()) getBloomFilter(field).add(bloomValues(entities, field));
+    }
+
+    // on update, only add values that changed: adding the same value on every update of a hot row would push its
+    // counters to 255, where they stick. the old values are left counted, which can only cause false positives
+    private void bloomAddChanged(Collection<E> entities) {
+        final Collection<String> fields = getBloomFilterFields();
+        if (empty(fields)) return;
+        final Map<String, E> existing = new HashMap<>();
+        if (entities.size() == 1) {
+            final E e = get(entities.iterator().next().getUuid());
+            if (e != null) existing.put(e.getUuid(), e);
+        } else {
+            for (E e : findByFieldIn("uuid", IdentifiableBase.toUuidList(entities))) existing.put(e.getUuid(), e);
+        }
+        for (String field : fields) {
+            final List<E> changed = new ArrayList<>();
+            for (E entity : entities) {
+                final E current = existing.get(entity.getUuid());
+                if (current == null || !Objects.equals(ReflectionUtil.get(current, field), ReflectionUtil.get(entity, field))) changed.add(entity);
+            }
+            if (!changed.isEmpty()) getBloomFilter(field).add(bloomValues(changed, field));
+        }
+    }
+
+    private void bloomRemove(E entity) {
+        for (String field : getBloomFilterFields()) getBloomFilter(field).remove(bloomValues(Collections.singletonList(entity), field));
+    }
+
+    private List<String> bloomValues(Collection<E> entities, String field) {
+        final List<String> values = new ArrayList<>(entities.size());
+        for (E entity : entities) {
+            final Object value = ReflectionUtil.get(entity, field);
+            if (value != null) values.add(value.toString());
+        }
+        return values;
+    }
+
+    /** clear every bloom filter and add the values of every existing entity, reading all shards with iterate */
+    public void rebuildBloomFilters() {
+        final Collection<String> fields = getBloomFilterFields();
+        if (empty(fields)) return;
+        for (String field : fields) getBloomFilter(field).startRebuild();
+
+        final int batchSize = 1000;
+        final List<E> batch = new ArrayList<>(batchSize);
+        iterate(entity -> {
+            batch.add(entity);
+            if (batch.size() >= batchSize) {
+                bloomAdd(batch);
+                batch.clear();
+            }
+        });
+        bloomAdd(batch);
+
+        for (String field : fields) getBloomFilter(field).finishRebuild();
+    }
+
     public void flushShardCache(String uuid) {
         flushCacheRefs(getCacheRefsKey(uuid));
         flushCacheRefs(getCacheRefsKey(NULL_CACHE));
     }
 
+    // flush the shard cache for many entities with a single DEL, and the null-cache refs only once
+    public void flushShardCache(Collection<String> uuids) {
+        final List<String> refsKeys = new ArrayList<>(uuids.size()+1);
+        for (String uuid : uuids) refsKeys.add(getCacheRefsKey(uuid));
+        refsKeys.add(getCacheRefsKey(NULL_CACHE));
+
+        final List<String> keys = new ArrayList<>();
+        for (String refsKey : refsKeys) keys.addAll(getShardCache().list(refsKey));
+        final Cache<String, Object> localCache = getLocalShardCache();
+        if (localCache != null) localCache.invalidateAll(keys);
+        keys.addAll(refsKeys);
+        getShardCache().del(keys);
+    }
+
     public void flushCacheRefs(String cacheRefsKey) {
         if (cacheRefsKey == null) return;
-        final List<String> cacheRefs = getShardCache().list(cacheRefsKey);
-        getShardCache().del(cacheRefsKey);
-        if (!empty(cacheRefs)) for (String ref : cacheRefs) getShardCache().del(ref);
-        getShardCache().del(cacheRefsKey);
+        final List<String> keys = getShardCache().list(cacheRefsKey);
+        final Cache<String, Object> localCache = getLocalShardCache();
+        if (localCache != null) localCache.invalidateAll(keys);
+        keys.add(cacheRefsKey);
+        getShardCache().del(keys);
     }
 
     public String getCacheRefsKey(String uuid) { return getShardConfiguration().getName()+":cache-refs:"+uuid; }
@@ -12,16 +12,22 @@ import org.cobbzilla.wizard.model.shard.Shardable;
 import org.cobbzilla.wizard.server.config.HasDatabaseConfiguration;
 import org.cobbzilla.wizard.server.config.RestServerConfiguration;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
 import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.orm.hibernate4.HibernateTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.Closeable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 
@@ -35,8 +41,45 @@ public abstract class AbstractSingleShardDAO<E extends Shardable>
 
     @Getter @Setter private ShardMap shard;
 
+    // shard DAOs are autowired directly rather than proxied, so @Transactional does not apply to them.
+    // batch writes run in an explicit transaction on this shard's session factory instead
+    @Getter(lazy=true) private final TransactionTemplate transactionTemplate = initTransactionTemplate();
+    private TransactionTemplate initTransactionTemplate() {
+        return new TransactionTemplate(new HibernateTransactionManager(getHibernateTemplate().getSessionFactory()));
+    }
+
+    @Override public List<E> createAll(Collection<E> entities) {
+        return getTransactionTemplate().execute(status -> super.createAll(entities));
+    }
+
+    @Override public List<E> updateAll(Collection<E> entities) {
+        return getTransactionTemplate().execute(status -> super.updateAll(entities));
+    }
+
     @Override public <R> List<R> search(ShardSearch search) {
-        return new ShardSearchTask(this, search).execTask();
+        final List<R> results = new ShardSearchTask(this, search).execTask();
+        // sorted results bypass the collector in the task, since across shards they must be merged first
+        return search.isSorted() ? search.collect(results) : results;
+    }
+
+    // a stateless session keeps no first-level cache, so memory stays flat however many rows are scrolled
+    @Override public void iterate(int fetchSize, Consumer<? super E> consumer) {
+        final StatelessSession session = getHibernateTemplate().getSessionFactory().openStatelessSession();
+        ScrollableResults results = null;
+        // the postgres driver only honors the fetch size inside a transaction
+        final Transaction tx = session.beginTransaction();
+        try {
+            results = session.createQuery("from " + getEntityClass().getSimpleName())
+                    .setFetchSize(fetchSize)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            while (results.next() && !Thread.currentThread().isInterrupted()) {
+                consumer.accept((E) results.get(0));
+            }
+        } finally {
+            if (results != null) results.close();
+            tx.rollback();
+            session.close();
+        }
     }
 
     @Override public List query(int maxResults, String hsql, Object... args) {
@@ -87,17 +130,7 @@ public abstract class AbstractSingleShardDAO<E extends Shardable>
 
     @Override public void initialize(ShardMap map) { setShard(map); }
 
-    @Override public void cleanup() {
-        try {
-            getHibernateTemplate().getSessionFactory().close();
-        } catch (Exception e) {
-            log.warn("cleanup: error destroying session factory: "+e, e);
-        }
-        try {
-            ((AbstractApplicationContext) configuration.getApplicationContext()).close();
-        } catch (Exception e) {
-            log.warn("cleanup: error destroying Spring ApplicationContext: "+e, e);
-        }
-    }
+    // the shard's context is shared with other DAO classes, it is closed when the last of them lets go
+    @Override public void cleanup() { ShardContexts.release(configuration.getApplicationContext()); }
 
 }
@@ -24,19 +24,20 @@ class DAOInitializer extends Thread {
         long start = now();
         log.info(prefix+"starting");
         while (attempt <= MAX_INIT_DAO_ATTEMPTS) {
-            Sleep.sleep(10000 + RandomUtils.nextLong(1000, 5000));
+            // the wait for the shard set name below covers startup, so only retries are delayed
+            if (attempt > 1) Sleep.sleep(RandomUtils.nextLong(1000, 5000));
             try {
                 boolean ok = false;
                 while (!ok) {
                     try {
                         if (shardSetName == null) shardSetName = shardedDAO.getMasterDbConfiguration().getShardSetName(shardedDAO.getEntityClass());
-                        ok = !shardSetName.isEmpty();
+                        ok = !shardSetName.isEmpty() && shardedDAO.hasServerContext();
                     } catch (Exception ignored) {}
                     Sleep.sleep(200);
                 }
                 final ShardMapDAO shardDAO = shardedDAO.getShardDAO();
                 if (shardDAO != null) {
-                    shardedDAO.toDAOs(shardDAO.findByShardSet(shardSetName));
+                    shardedDAO.buildDAOs(shardDAO.findByShardSet(shardSetName));
                     log.info(prefix+"completed in "+formatDurationFrom(start));
                     return;
                 } else {
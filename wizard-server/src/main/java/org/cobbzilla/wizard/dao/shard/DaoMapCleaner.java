@@ -1,19 +1,29 @@
 package org.cobbzilla.wizard.dao.shard;
 
 import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.wizard.model.shard.ShardMap;
 import org.cobbzilla.wizard.model.shard.Shardable;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
-@AllArgsConstructor
+/**
+ * Retires the DAOs of shard maps that are no longer routed to. Started when AbstractShardedDAO swaps in a new
+ * routing table; waits out a grace period first, since requests that picked up the old table may still be using them.
+ */
+@AllArgsConstructor @Slf4j
 public class DaoMapCleaner<E extends Shardable, D extends SingleShardDAO<E>> implements Runnable {
 
     private Map<ShardMap, D> daos;
-    private ShardMapDAO shardMapDAO;
+    private Supplier<Collection<ShardMap>> liveMaps;
+    private long gracePeriod;
+    private BiConsumer<ShardMap, D> retire;
 
     private final AtomicReference<Thread> thread = new AtomicReference<>();
 
@@ -26,15 +36,19 @@ public class DaoMapCleaner<E extends Shardable, D extends SingleShardDAO<E>> imp
     }
 
     public void run() {
-        final List<ShardMap> all = shardMapDAO.refreshCache();
-        final List<ShardMap> toRemove = new ArrayList<>();
+        try {
+            Thread.sleep(gracePeriod);
+        } catch (InterruptedException e) {
+            log.warn("run: interrupted, not cleaning");
+            return;
+        }
+        // checked after the grace period: a newer routing table may have brought a shard back
+        final Collection<ShardMap> live = liveMaps.get();
+        final List<Map.Entry<ShardMap, D>> toRemove = new ArrayList<>();
         for (Map.Entry<ShardMap, D> entry : daos.entrySet()) {
             final ShardMap shardMap = entry.getKey();
-            if (!shardMap.isDefaultShard() && !all.contains(shardMap)) {
-                toRemove.add(shardMap);
-                entry.getValue().cleanup();
-            }
+            if (!shardMap.isDefaultShard() && !live.contains(shardMap)) toRemove.add(entry);
         }
-        for (ShardMap map : toRemove) daos.remove(map);
+        for (Map.Entry<ShardMap, D> entry : toRemove) retire.accept(entry.getKey(), entry.getValue());
     }
 }
@@ -0,0 +1,102 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.Getter;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * A bounded executor for the queries sent to a single shard, so a slow shard can only tie up its own threads.
+ * When the queue is full, or the circuit is open after too many consecutive failures, tasks are rejected
+ * with a RejectedExecutionException. After the cool-down, tasks are let through again, and the next failure
+ * re-opens the circuit.
+ */
+public class ShardBulkhead implements Executor {
+
+    @Getter private final ShardMap shard;
+    private final ThreadPoolExecutor pool;
+    private final int failureThreshold;
+    private final long coolDown;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntil = 0;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalQueueWait = new LongAdder();
+    private final AtomicLong maxQueueWait = new AtomicLong();
+
+    public ShardBulkhead(ShardMap shard, int threads, int queueSize, int failureThreshold, long coolDown) {
+        this.shard = shard;
+        this.failureThreshold = failureThreshold;
+        this.coolDown = coolDown;
+        this.pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(queueSize));
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override public void execute(Runnable command) {
+        if (isOpen()) {
+            shortCircuited.increment();
+            throw new RejectedExecutionException("circuit open for "+shard);
+        }
+        try {
+            pool.execute(command);
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new RejectedExecutionException("queue full for "+shard, e);
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(track(task));
+        execute(future);
+        return future;
+    }
+
+    /** wrap a task to record its queue wait and feed its outcome to the circuit breaker. call right before submitting */
+    public <T> Callable<T> track(Callable<T> task) {
+        final long queued = now();
+        return () -> {
+            final long wait = now() - queued;
+            totalQueueWait.add(wait);
+            maxQueueWait.accumulateAndGet(wait, Math::max);
+            try {
+                final T result = task.call();
+                consecutiveFailures.set(0);
+                return result;
+            } catch (Exception e) {
+                // a read cancelled by a hedge or a cancelled fan-out is not the shard's fault
+                if (!Thread.currentThread().isInterrupted()) {
+                    failures.increment();
+                    if (consecutiveFailures.incrementAndGet() >= failureThreshold) openUntil = now() + coolDown;
+                }
+                throw e;
+            }
+        };
+    }
+
+    public boolean isOpen() { return now() < openUntil; }
+
+    public int getActive() { return pool.getActiveCount(); }
+    public int getQueued() { return pool.getQueue().size(); }
+    public long getSubmitted() { return submitted.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getShortCircuited() { return shortCircuited.sum(); }
+    public long getFailures() { return failures.sum(); }
+    public long getMaxQueueWait() { return maxQueueWait.get(); }
+    public long getAverageQueueWait() {
+        final long count = getSubmitted();
+        return count == 0 ? 0 : totalQueueWait.sum() / count;
+    }
+
+    public void shutdown() { pool.shutdown(); }
+
+}
@@ -0,0 +1,82 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.AbstractApplicationContext;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The Spring contexts built for shard databases, one per database. Each holds a connection pool and a Hibernate
+ * SessionFactory, and every single-shard DAO class that targets the same database shares it. Contexts are
+ * reference-counted: the last DAO to release a context closes it.
+ */
+@Slf4j
+public class ShardContexts {
+
+    private static class Shared {
+        private ApplicationContext context;
+        private int refs = 0;
+    }
+
+    private static final Map<String, Shared> contexts = new HashMap<>();
+
+    /**
+     * @param key identifies the database, for example its url and user
+     * @param builder builds the context the first time key is seen. contexts for different keys are built concurrently
+     * @return the shared context for key. call release when done with it
+     */
+    public static ApplicationContext acquire(String key, Supplier<ApplicationContext> builder) {
+        final Shared shared;
+        synchronized (contexts) {
+            shared = contexts.computeIfAbsent(key, k -> new Shared());
+            shared.refs++;
+        }
+        try {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (shared) {
+                if (shared.context == null) shared.context = builder.get();
+                return shared.context;
+            }
+        } catch (RuntimeException e) {
+            synchronized (contexts) {
+                if (--shared.refs == 0) contexts.remove(key, shared);
+            }
+            throw e;
+        }
+    }
+
+    public static void release(ApplicationContext context) {
+        ApplicationContext toClose = null;
+        synchronized (contexts) {
+            for (Iterator<Shared> iter = contexts.values().iterator(); iter.hasNext(); ) {
+                final Shared shared = iter.next();
+                if (shared.context != context) continue;
+                if (--shared.refs == 0) {
+                    iter.remove();
+                    toClose = context;
+                }
+                break;
+            }
+        }
+        if (toClose != null) close(toClose);
+    }
+
+    private static void close(ApplicationContext context) {
+        try {
+            context.getBean(SessionFactory.class).close();
+        } catch (Exception e) {
+            log.warn("close: error destroying session factory: "+e, e);
+        }
+        try {
+            ((AbstractApplicationContext) context).close();
+        } catch (Exception e) {
+            log.warn("close: error destroying Spring ApplicationContext: "+e, e);
+        }
+    }
+
+}
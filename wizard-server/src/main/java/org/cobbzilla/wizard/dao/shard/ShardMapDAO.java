@@ -1,17 +1,23 @@
 package org.cobbzilla.wizard.dao.shard;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.cobbzilla.util.collection.FieldTransformer;
 import org.cobbzilla.util.collection.mappy.MappyList;
+import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.dao.AbstractCRUDDAO;
 import org.cobbzilla.wizard.model.shard.ShardIO;
 import org.cobbzilla.wizard.model.shard.ShardMap;
 import org.cobbzilla.wizard.model.shard.ShardSetStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.validation.Valid;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -23,76 +29,162 @@ public abstract class ShardMapDAO<E extends ShardMap> extends AbstractCRUDDAO<E>
 
     private static final long CACHE_TIMEOUT = TimeUnit.MINUTES.toMillis(60);
 
+    // how often the background refresher checks the shared version, so every node sees changes within seconds
+    private static final long VERSION_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    public static final String VERSION_KEY = "version";
+
+    @Autowired(required=false) private RedisService redisService;
+
+    @Getter(lazy=true) private final RedisService versionCache = initVersionCache();
+    private RedisService initVersionCache() {
+        return redisService == null ? null : redisService.prefixNamespace("shard-maps-"+getEntityClass().getName());
+    }
+
     private final AtomicReference<List<E>> flatCache = new AtomicReference<>();
     private final AtomicReference<MappyList<String, E>> readCache = new AtomicReference<>();
     private final AtomicReference<MappyList<String, E>> writeCache = new AtomicReference<>();
     private final AtomicLong lastRefresh = new AtomicLong(0);
-    private final AtomicReference<Thread> refresher = new AtomicReference<>();
+    private final AtomicLong cacheVersion = new AtomicLong(0);
+    private final AtomicLong sharedVersion = new AtomicLong(0);
+    private final AtomicBoolean refresherStarted = new AtomicBoolean(false);
 
     @Override public List<E> findAll() { return refreshCache(); }
 
+    /**
+     * @return the cached shard maps. Only the very first call loads them; after that a background thread
+     * reloads them when another node bumps the shared version, or when CACHE_TIMEOUT has passed, and
+     * callers keep getting the previous maps until the new ones are swapped in.
+     */
     public List<E> refreshCache() { return refreshCache(false); }
 
+    /** @param force reload now, on this thread. used after changing a shard map here */
     public List<E> refreshCache(boolean force) {
-        final List<E> all;
-        if ((force || now() - lastRefresh.get() > CACHE_TIMEOUT) && refresher.get() == null) {
-            synchronized (refresher) {
-                if ((force || now() - lastRefresh.get() > CACHE_TIMEOUT) && refresher.get() == null) {
-                    try {
-                        refresher.set(Thread.currentThread());
-                        final MappyList<String, E> newReadCache = new MappyList<>();
-                        final MappyList<String, E> newWriteCache = new MappyList<>();
-                        final List<E> newFlatCache = new ArrayList<>();
-                        all = super.findAll();
-                        for (E shardMap : all) {
-
-                            final List<E> readShards = newReadCache.getAll(shardMap.getShardSet());
-                            if (shardMap.isAllowRead()) readShards.add(shardMap);
-
-                            final List<E> writeShards = newWriteCache.getAll(shardMap.getShardSet());
-                            if (shardMap.isAllowWrite()) writeShards.add(shardMap);
-
-                            newFlatCache.add(shardMap);
-                        }
-
-                        // validate
-                        for (String shardSet : toNames(newFlatCache)) {
-                            if (!validate(shardSet, newReadCache.getAll(shardSet))) log.warn("Invalid read-shard set for " + shardSet);
-                            if (!validate(shardSet, newWriteCache.getAll(shardSet))) log.warn("Invalid write-shard set for " + shardSet);
-                        }
-
-                        readCache.set(newReadCache);
-                        writeCache.set(newWriteCache);
-                        flatCache.set(newFlatCache);
-
-                        lastRefresh.set(now());
-
-                    } finally {
-                        refresher.set(null);
-                    }
-                } else {
-                    all = flatCache.get();
+        if (force) {
+            reload();
+        } else if (flatCache.get() == null) {
+            synchronized (reloadLock) {
+                if (flatCache.get() == null) reload();
+            }
+        }
+        startRefresher();
+        return flatCache.get();
+    }
+
+    private void startRefresher() {
+        if (!refresherStarted.compareAndSet(false, true)) return;
+        final Thread t = new Thread(this::refreshLoop, getClass().getSimpleName()+"-refresher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void refreshLoop() {
+        while (true) {
+            try {
+                Thread.sleep(VERSION_CHECK_INTERVAL);
+            } catch (InterruptedException e) {
+                log.info("refreshLoop: interrupted, exiting");
+                return;
+            }
+            try {
+                // read the shared version first: a change made during the reload is picked up next time around
+                final long shared = getSharedVersion();
+                if (shared != sharedVersion.get() || now() - lastRefresh.get() > CACHE_TIMEOUT) {
+                    reload();
+                    sharedVersion.set(shared);
                 }
+            } catch (Exception e) {
+                log.warn("refreshLoop: "+e, e);
             }
-        } else {
-            all = flatCache.get();
         }
-        return all;
+    }
+
+    private long getSharedVersion() {
+        final RedisService cache = getVersionCache();
+        if (cache == null) return 0;
+        final String version = cache.get_plaintext(VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    // tell the other nodes to reload
+    private void bumpSharedVersion() {
+        final RedisService cache = getVersionCache();
+        if (cache == null) return;
+        try {
+            sharedVersion.set(cache.incr(VERSION_KEY));
+        } catch (Exception e) {
+            log.warn("bumpSharedVersion: "+e+" (other nodes will reload within "+TimeUnit.MILLISECONDS.toMinutes(CACHE_TIMEOUT)+" minutes)");
+        }
+    }
+
+    private final Object reloadLock = new Object();
+
+    private void reload() {
+        synchronized (reloadLock) {
+            final MappyList<String, E> newReadCache = new MappyList<>();
+            final MappyList<String, E> newWriteCache = new MappyList<>();
+            final List<E> newFlatCache = new ArrayList<>();
+            for (E shardMap : super.findAll()) {
+
+                final List<E> readShards = newReadCache.getAll(shardMap.getShardSet());
+                if (shardMap.isAllowRead()) readShards.add(shardMap);
+
+                final List<E> writeShards = newWriteCache.getAll(shardMap.getShardSet());
+                if (shardMap.isAllowWrite()) writeShards.add(shardMap);
+
+                newFlatCache.add(shardMap);
+            }
+
+            // validate
+            for (String shardSet : toNames(newFlatCache)) {
+                if (!validate(shardSet, newReadCache.getAll(shardSet))) log.warn("Invalid read-shard set for " + shardSet);
+                if (!validate(shardSet, newWriteCache.getAll(shardSet))) log.warn("Invalid write-shard set for " + shardSet);
+            }
+
+            readCache.set(newReadCache);
+            writeCache.set(newWriteCache);
+            flatCache.set(newFlatCache);
+            cacheVersion.incrementAndGet();
+
+            lastRefresh.set(now());
+        }
+    }
+
+    // changes every time the cache is reloaded; lets callers rebuild anything derived from the shard maps
+    public long getCacheVersion() {
+        refreshCache();
+        return cacheVersion.get();
     }
 
     @Override public E postCreate(E entity, Object context) {
-        refreshCache(true);
+        shardMapsChanged();
         return super.postCreate(entity, context);
     }
 
     @Override public E postUpdate(@Valid E entity, Object context) {
-        refreshCache(true);
+        shardMapsChanged();
         return super.postUpdate(entity, context);
     }
 
     @Override public void delete(String uuid) {
         super.delete(uuid);
+        shardMapsChanged();
+    }
+
+    // reload here right away. other nodes are only told once the change is committed, otherwise they could
+    // reload before it is visible to them and keep the old maps until CACHE_TIMEOUT
+    private void shardMapsChanged() {
         refreshCache(true);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCommit() { bumpSharedVersion(); }
+                @Override public void afterCompletion(int status) {
+                    // rolled back: what we loaded came from inside the transaction, let the refresher reload it
+                    if (status != STATUS_COMMITTED) lastRefresh.set(0);
+                }
+            });
+        } else {
+            bumpSharedVersion();
+        }
     }
 
     public static final FieldTransformer TO_SHARD_SET = new FieldTransformer("shardSet");
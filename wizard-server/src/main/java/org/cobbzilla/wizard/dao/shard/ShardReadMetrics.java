@@ -0,0 +1,103 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read latency and errors for a single shard, kept by AbstractShardedDAO to choose between replicas.
+ * Latency is an exponentially weighted moving average; times are in microseconds.
+ */
+public class ShardReadMetrics {
+
+    public static final double ALPHA = 0.2;
+
+    // an error weighs the same as this many times the average latency, fading out over ERROR_DECAY
+    public static final double ERROR_PENALTY = 10.0;
+    public static final long ERROR_DECAY = TimeUnit.SECONDS.toNanos(10);
+
+    // a replica that has not been read in this long scores as if idle, so one bad spell does not starve it forever
+    public static final long STALE = TimeUnit.SECONDS.toNanos(5);
+
+    private static final int SAMPLES = 256;
+
+    private final long[] samples = new long[SAMPLES];
+    private int sampleCount = 0;
+
+    private double ewma = 0;
+    private double errorRate = 0;
+    private long lastErrorNanos = 0;
+    private volatile long lastReadNanos = 0;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void success(long startNanos) {
+        final long now = System.nanoTime();
+        final long micros = TimeUnit.NANOSECONDS.toMicros(now - startNanos);
+        inFlight.decrementAndGet();
+        reads.increment();
+        synchronized (this) {
+            ewma = sampleCount == 0 ? micros : ewma + ALPHA * (micros - ewma);
+            samples[sampleCount++ % SAMPLES] = micros;
+            lastReadNanos = now;
+        }
+    }
+
+    public void error() {
+        inFlight.decrementAndGet();
+        errors.increment();
+        synchronized (this) {
+            errorRate = getErrorRate() + ALPHA * (1 - getErrorRate());
+            lastErrorNanos = lastReadNanos = System.nanoTime();
+        }
+    }
+
+    // the read was abandoned because another replica answered first
+    public void cancelled() { inFlight.decrementAndGet(); }
+
+    public void hedged() { hedges.increment(); }
+
+    public synchronized double getErrorRate() {
+        if (errorRate == 0) return 0;
+        return errorRate * Math.exp(-((double) (System.nanoTime() - lastErrorNanos)) / ERROR_DECAY);
+    }
+
+    public synchronized double getAverageLatency() { return ewma; }
+
+    /** @return lower is better. combines latency, requests already in flight, and recent errors */
+    public double getScore() {
+        if (lastReadNanos == 0 || System.nanoTime() - lastReadNanos > STALE) return 0;
+        final double latency;
+        final double errorRate;
+        synchronized (this) {
+            latency = ewma;
+            errorRate = getErrorRate();
+        }
+        return (latency + 1) * (inFlight.get() + 1) * (1 + ERROR_PENALTY * errorRate);
+    }
+
+    public synchronized long getP95Latency() {
+        final int n = Math.min(sampleCount, SAMPLES);
+        if (n == 0) return 0;
+        final long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        return sorted[Math.min(n - 1, (int) (n * 0.95))];
+    }
+
+    public synchronized int getSampleCount() { return Math.min(sampleCount, SAMPLES); }
+
+    public int getInFlight() { return inFlight.get(); }
+    public long getReads() { return reads.sum(); }
+    public long getErrors() { return errors.sum(); }
+    public long getHedges() { return hedges.sum(); }
+
+}
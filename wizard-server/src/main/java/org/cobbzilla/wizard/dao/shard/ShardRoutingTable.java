@@ -0,0 +1,171 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.Getter;
+import org.cobbzilla.wizard.model.shard.ShardIO;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.model.shard.ShardRange;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Immutable routing table for one shard set: each logical shard maps directly to the DAOs that serve it.
+ * AbstractShardedDAO builds a new table whenever the ShardMapDAO cache version changes and swaps it in atomically,
+ * so routing a single entity is a hash plus an array lookup.
+ */
+public class ShardRoutingTable<D> {
+
+    @Getter private final long version;
+    @Getter private final int logicalShards;
+
+    // indexed by logical shard. adjacent logical shards covered by the same maps share the same list instance
+    private final List<D>[] read;
+    private final List<D>[] write;
+    private final List<D>[] all;
+
+    @Getter private final List<D> readDAOs;
+    @Getter private final List<D> writeDAOs;
+    @Getter private final List<D> allDAOs;
+
+    // read replicas grouped by range. one replica from each group covers every logical shard
+    @Getter private final List<List<D>> readReplicaSets;
+
+    // every shard map this table routes to
+    @Getter private final Set<ShardMap> shardMaps;
+
+    public ShardRoutingTable(long version,
+                             int logicalShards,
+                             List<? extends ShardMap> readMaps,
+                             List<? extends ShardMap> writeMaps,
+                             Supplier<ShardMap> defaultMap,
+                             Function<ShardMap, D> toDAO) {
+        if (logicalShards <= 0) die("ShardRoutingTable: invalid logicalShards: "+logicalShards);
+        this.version = version;
+        this.logicalShards = logicalShards;
+
+        final Map<ShardMap, D> resolved = new HashMap<>();
+        final Function<ShardMap, D> resolve = m -> resolved.computeIfAbsent(m, toDAO);
+        // only resolved when some logical shard has no maps at all
+        final Supplier<List<ShardMap>> defaultList = () -> Collections.singletonList(defaultMap.get());
+
+        final Set<ShardMap> allMaps = new LinkedHashSet<>(readMaps);
+        allMaps.addAll(writeMaps);
+
+        this.read = route(readMaps, defaultList, resolve);
+        this.write = route(writeMaps, defaultList, resolve);
+        this.all = route(new ArrayList<>(allMaps), defaultList, resolve);
+
+        this.readDAOs = toDAOs(readMaps.isEmpty() ? defaultList.get() : readMaps, resolve);
+        this.writeDAOs = toDAOs(writeMaps.isEmpty() ? defaultList.get() : writeMaps, resolve);
+        this.allDAOs = toDAOs(allMaps.isEmpty() ? defaultList.get() : allMaps, resolve);
+
+        final Map<ShardRange, List<ShardMap>> byRange = new LinkedHashMap<>();
+        for (ShardMap m : readMaps.isEmpty() ? defaultList.get() : readMaps) {
+            byRange.computeIfAbsent(m.getRange(), r -> new ArrayList<>()).add(m);
+        }
+        final List<List<D>> replicaSets = new ArrayList<>(byRange.size());
+        for (List<ShardMap> replicas : byRange.values()) replicaSets.add(toDAOs(replicas, resolve));
+        this.readReplicaSets = Collections.unmodifiableList(replicaSets);
+        this.shardMaps = Collections.unmodifiableSet(new HashSet<>(resolved.keySet()));
+    }
+
+    public List<D> getDAOs(int logicalShard, ShardIO shardIO) {
+        switch (shardIO) {
+            case read:  return read[logicalShard];
+            case write: return write[logicalShard];
+            default: return die("getDAOs: invalid shardIO: "+shardIO);
+        }
+    }
+
+    public List<D> getDAOs(int logicalShard) { return all[logicalShard]; }
+
+    public List<D> getDAOs(ShardIO shardIO) {
+        switch (shardIO) {
+            case read:  return readDAOs;
+            case write: return writeDAOs;
+            default: return die("getDAOs: invalid shardIO: "+shardIO);
+        }
+    }
+
+    public int getLogicalShard(String id) { return logicalShard(id, logicalShards); }
+
+    private List<D>[] route(List<? extends ShardMap> maps, Supplier<List<ShardMap>> defaultList, Function<ShardMap, D> resolve) {
+        @SuppressWarnings("unchecked") final List<D>[] table = new List[logicalShards];
+
+        // split [0, logicalShards) into segments at every range boundary; every logical shard within a segment
+        // is covered by exactly the same maps
+        final TreeSet<Integer> bounds = new TreeSet<>();
+        bounds.add(0);
+        bounds.add(logicalShards);
+        for (ShardMap m : maps) {
+            bounds.add(clip(m.getRange().getLogicalStart()));
+            bounds.add(clip(m.getRange().getLogicalEnd()));
+        }
+
+        Integer start = bounds.first();
+        for (Integer end : bounds.tailSet(start, false)) {
+            final List<ShardMap> matches = new ArrayList<>();
+            for (ShardMap m : maps) if (m.mapsShard(start)) matches.add(m);
+            final List<D> daos = toDAOs(matches.isEmpty() ? defaultList.get() : matches, resolve);
+            Arrays.fill(table, start, end, daos);
+            start = end;
+        }
+        return table;
+    }
+
+    private int clip(int shard) { return Math.max(0, Math.min(shard, logicalShards)); }
+
+    private List<D> toDAOs(Collection<? extends ShardMap> maps, Function<ShardMap, D> resolve) {
+        final List<D> daos = new ArrayList<>(maps.size());
+        for (ShardMap m : maps) daos.add(resolve.apply(m));
+        return Collections.unmodifiableList(daos);
+    }
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return die("SHA256: "+e, e);
+        }
+    });
+    private static final ThreadLocal<byte[]> DIGEST = ThreadLocal.withInitial(() -> new byte[32]);
+
+    /**
+     * Computes the same logical shard as taking the first 7 hex digits of sha256_hex(id) modulo logicalShards,
+     * so existing rows stay where they are, but without building the hex string or parsing it.
+     * ASCII ids (uuids and the like) are hashed without allocating.
+     */
+    public static int logicalShard(String id, int logicalShards) {
+        final MessageDigest md = SHA256.get();
+        md.reset();
+        boolean ascii = true;
+        for (int i=0; i<id.length(); i++) {
+            if (id.charAt(i) >= 0x80) { ascii = false; break; }
+        }
+        if (ascii) {
+            for (int i=0; i<id.length(); i++) md.update((byte) id.charAt(i));
+        } else {
+            md.update(id.getBytes(UTF_8));
+        }
+        final byte[] digest = DIGEST.get();
+        try {
+            md.digest(digest, 0, digest.length);
+        } catch (DigestException e) {
+            return die("logicalShard: "+e, e);
+        }
+        // first 28 bits of the digest == first 7 hex digits; always non-negative
+        final int val = ((digest[0] & 0xff) << 20)
+                      | ((digest[1] & 0xff) << 12)
+                      | ((digest[2] & 0xff) << 4)
+                      | ((digest[3] & 0xff) >>> 4);
+        return val % logicalShards;
+    }
+
+}
@@ -1,18 +1,16 @@
 package org.cobbzilla.wizard.dao.shard;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.cobbzilla.wizard.util.ResultCollector;
 import org.cobbzilla.wizard.util.ResultCollectorBase;
+import org.cobbzilla.wizard.util.SortedMerge;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
-@NoArgsConstructor @AllArgsConstructor @Accessors(chain=true)
+@NoArgsConstructor @Accessors(chain=true)
 public class ShardSearch {
 
     @Getter @Setter protected String hash = null;
@@ -24,6 +22,18 @@ public class ShardSearch {
     @Getter @Setter private ResultCollector collector = new ResultCollectorBase();
     @Getter @Setter private Comparator comparator = null;
 
+    public ShardSearch (String hash, String hsql, List<Object> args, ResultCollector collector, Comparator comparator,
+                        int maxResults, int maxResultsPerShard, Long timeout) {
+        this.hash = hash;
+        this.hsql = hsql;
+        this.args = args;
+        this.collector = collector;
+        this.comparator = comparator;
+        this.maxResults = maxResults;
+        this.maxResultsPerShard = maxResultsPerShard;
+        this.timeout = timeout;
+    }
+
     public ShardSearch (String hsql, List<Object> args) { this(hsql, args, null); }
     public ShardSearch (String hsql, List<Object> args, String hash) { this.hsql = hsql; this.args = args; this.hash = hash; }
 
@@ -36,6 +46,22 @@ public class ShardSearch {
 
     @Getter @Setter private int maxResultsPerShard = Integer.MAX_VALUE;
 
+    // set when the hsql ends with an ORDER BY matching the comparator. each shard then only needs to return
+    // its first maxResults rows, since nothing past those can make the merged top N
+    @Getter @Setter private boolean presorted = false;
+
+    public boolean isSorted() { return comparator != null; }
+
+    // a plain ResultCollectorBase takes every row its filter accepts until it is full, so a shard's best maxResults
+    // accepted rows are all it can need. a custom collector may turn rows down, and needs to be offered more
+    private boolean isPlainCollector() { return collector == null || collector.getClass() == ResultCollectorBase.class; }
+
+    public int getShardLimit() {
+        // the filter runs after the query, so the query can only stop early if nothing is filtered out
+        final boolean takesAll = isPlainCollector() && (collector == null || collector.getEntityFilter() == null);
+        return isSorted() && presorted && takesAll ? Math.min(maxResultsPerShard, maxResults) : maxResultsPerShard;
+    }
+
     @Getter @Setter private Long timeout;
     public boolean hasTimeout() { return timeout != null && timeout > 0; }
 
@@ -43,4 +69,40 @@ public class ShardSearch {
         if (comparator != null) Collections.sort(results, getComparator());
         return results;
     }
+
+    // sorted per-shard results, trimmed to maxResults when the collector will take every one of them
+    public <R> List<R> topN(List<R> results) {
+        return SortedMerge.topN(results, (Comparator<R>) comparator, isPlainCollector() ? maxResults : Integer.MAX_VALUE);
+    }
+
+    // streaming k-way merge of sorted per-shard results, stopping after maxResults
+    public <R> List<R> merge(List<List<R>> shardResults) { return SortedMerge.merge(shardResults, (Comparator<R>) comparator, maxResults); }
+
+    /**
+     * Hand sorted results to the collector in order, until it is full
+     * @return the collector's results, sorted
+     */
+    public <R> List<R> collect(List<R> sorted) { return collect(sorted.iterator()); }
+
+    /**
+     * Merge sorted per-shard results into the collector as they are read, until it is full. Rows the collector
+     * turns down do not count towards maxResults, so it keeps being offered rows while any shard has more
+     * @return the collector's results, sorted
+     */
+    public <R> List<R> collectMerged(List<List<R>> shardResults) {
+        if (collector == null) return merge(shardResults);
+        return collect(SortedMerge.iterator(shardResults, (Comparator<R>) comparator));
+    }
+
+    private <R> List<R> collect(Iterator<R> sorted) {
+        if (collector == null) {
+            final List<R> results = new ArrayList<>();
+            while (sorted.hasNext() && results.size() < maxResults) results.add(sorted.next());
+            return results;
+        }
+        while (sorted.hasNext() && collector.size() < maxResults) {
+            if (!collector.addResult(sorted.next())) break;
+        }
+        return sort((List<R>) collector.getResults());
+    }
 }
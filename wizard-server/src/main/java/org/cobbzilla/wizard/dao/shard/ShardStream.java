@@ -0,0 +1,132 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Reads several shards in parallel into one iterator. Each shard's reader runs on its own executor and hands
+ * rows over through a bounded queue, so a reader blocks when the consumer falls behind and memory use does
+ * not depend on the size of the tables. Rows from different shards are interleaved in no particular order.
+ * Closing the stream stops every reader. A consumer that takes nothing for idleTimeout is taken to have abandoned
+ * the stream without closing it: the readers close it, and the consumer gets an error if it reads again.
+ */
+public class ShardStream<E> implements Iterator<E>, Closeable {
+
+    private static final Object DONE = new Object();
+    private static final long OFFER_INTERVAL = 100;
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private final BlockingQueue<Object> queue;
+    private final long idleTimeout;
+    private volatile long lastTake = System.currentTimeMillis(); // when the consumer last asked for a row
+    private final List<Future<?>> readers = new ArrayList<>();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private volatile boolean closed = false;
+    private int running = 0;
+    private Object next;
+
+    public ShardStream(int queueSize) { this(queueSize, DEFAULT_IDLE_TIMEOUT); }
+
+    public ShardStream(int queueSize, long idleTimeout) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Start reading a shard
+     * @param executor where the reader runs
+     * @param reader passes every row of its shard to the consumer it is given, then returns
+     */
+    public ShardStream<E> addShard(Executor executor, Consumer<Consumer<E>> reader) {
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                reader.accept(this::put);
+            } catch (Throwable t) {
+                if (!closed) error.compareAndSet(null, t);
+            } finally {
+                if (!closed) put(DONE);
+            }
+            return null;
+        });
+        executor.execute(task);
+        readers.add(task);
+        running++;
+        return this;
+    }
+
+    private void put(Object thing) {
+        try {
+            while (!queue.offer(thing, OFFER_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (closed) throw new CancellationException("ShardStream closed");
+                // measured from the consumer's last read: other readers may be keeping the queue full meanwhile
+                if (System.currentTimeMillis() - lastTake > idleTimeout) {
+                    error.compareAndSet(null, new TimeoutException("ShardStream: consumer took nothing for "+idleTimeout+"ms, closing"));
+                    close();
+                    throw new CancellationException("ShardStream abandoned");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException("ShardStream interrupted");
+        }
+    }
+
+    @Override public boolean hasNext() {
+        if (next != null) return true;
+        lastTake = System.currentTimeMillis();
+        // readers stop adding to the queue once closed, so waiting on it then would never return
+        while (running > 0 && !closed) {
+            final Object thing;
+            try {
+                thing = queue.poll(OFFER_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                close();
+                return die("hasNext: interrupted");
+            }
+            if (thing == null) continue;
+            if (thing == DONE) {
+                running--;
+                checkError();
+                continue;
+            }
+            next = thing;
+            return true;
+        }
+        // closed by the consumer, or by a reader that gave up waiting for it
+        if (closed) checkError();
+        return false;
+    }
+
+    @Override public E next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final E thing = (E) next;
+        next = null;
+        return thing;
+    }
+
+    private void checkError() {
+        final Throwable t = error.get();
+        if (t == null) return;
+        close();
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        die("ShardStream: reader failed: "+t, t instanceof Exception ? (Exception) t : new ExecutionException(t));
+    }
+
+    public Stream<E> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    @Override public void close() {
+        if (closed) return;
+        closed = true;
+        for (Future<?> reader : readers) reader.cancel(true);
+        queue.clear();
+    }
+
+}
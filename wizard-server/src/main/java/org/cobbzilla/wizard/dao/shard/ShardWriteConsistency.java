@@ -0,0 +1,32 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * How many replicas AbstractShardedDAO waits for when a write goes to several shards that map the same logical range.
+ * With quorum and one, the remaining replicas finish in the background and are retried if they fail.
+ */
+public enum ShardWriteConsistency {
+
+    // every replica must succeed before the write returns; any failure fails the write
+    all,
+
+    // a majority of replicas must succeed
+    quorum,
+
+    // the first replica to succeed completes the write
+    one;
+
+    @JsonCreator public static ShardWriteConsistency fromString (String val) { return valueOf(val.toLowerCase()); }
+
+    public int required(int replicas) {
+        switch (this) {
+            case quorum: return replicas/2 + 1;
+            case one:    return Math.min(1, replicas);
+            default:     return replicas;
+        }
+    }
+
+    public boolean isAsync() { return this != all; }
+
+}
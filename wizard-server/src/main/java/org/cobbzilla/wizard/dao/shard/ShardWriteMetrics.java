@@ -0,0 +1,37 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write counters for a single shard, kept by AbstractShardedDAO. Times are in milliseconds.
+ */
+public class ShardWriteMetrics {
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder totalTime = new LongAdder();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    public void success(long millis) {
+        writes.increment();
+        totalTime.add(millis);
+        maxTime.accumulateAndGet(millis, Math::max);
+    }
+
+    public void error() { errors.increment(); }
+    public void retry() { retries.increment(); }
+
+    public long getWrites() { return writes.sum(); }
+    public long getErrors() { return errors.sum(); }
+    public long getRetries() { return retries.sum(); }
+    public long getTotalTime() { return totalTime.sum(); }
+    public long getMaxTime() { return maxTime.get(); }
+
+    public long getAverageTime() {
+        final long count = getWrites();
+        return count == 0 ? 0 : getTotalTime() / count;
+    }
+
+}
@@ -6,7 +6,9 @@ import org.cobbzilla.wizard.model.shard.Shardable;
 import org.hibernate.Session;
 import org.springframework.orm.hibernate4.HibernateTemplate;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface SingleShardDAO<E extends Shardable> extends DAO<E> {
 
@@ -17,6 +19,9 @@ public interface SingleShardDAO<E extends Shardable> extends DAO<E> {
     List<E> findByFields(String f1, Object v1, String f2, Object v2, String f3, Object v3);
     List<E> findByFields(String f1, Object v1, String f2, Object v2, String f3, Object v3, String f4, Object v4);
 
+    List<E> createAll(Collection<E> entities);
+    List<E> updateAll(Collection<E> entities);
+
     void initialize(ShardMap map);
     ShardMap getShard();
 
@@ -30,4 +35,7 @@ public interface SingleShardDAO<E extends Shardable> extends DAO<E> {
 
     <R> List<R> search(ShardSearch search);
 
+    /** pass every entity in this shard to consumer, reading through a cursor fetchSize rows at a time */
+    void iterate(int fetchSize, Consumer<? super E> consumer);
+
 }
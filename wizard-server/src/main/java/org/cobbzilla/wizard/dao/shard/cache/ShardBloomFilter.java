@@ -0,0 +1,130 @@
+package org.cobbzilla.wizard.dao.shard.cache;
+
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.cobbzilla.util.io.StreamUtil.stream2string;
+import static org.cobbzilla.util.string.StringUtil.getPackagePath;
+
+/**
+ * A counting Bloom filter of the values of one unique field across a shard set, kept in redis as a string of
+ * 8-bit counters so every node shares it. Values are added on create/update and removed on delete.
+ * A lookup for a value the filter has never seen can return null without asking any shard.
+ *
+ * The filter is only consulted once it has been built from every existing row (see rebuild in AbstractShardedDAO).
+ * Until then, or when redis fails, every value "might exist". Errors only ever go in the safe direction:
+ * a value that is counted too often is a false positive and costs a normal lookup. For the same reason a counter
+ * that saturates at 255 stays there: it no longer knows how many values map to it, so removals leave it alone.
+ */
+@Slf4j
+public class ShardBloomFilter {
+
+    public static final long REBUILD_TIMEOUT = TimeUnit.DAYS.toSeconds(1);
+    private static final int MAX_VALUES_PER_CALL = 500;
+
+    private final RedisService redis;
+    @Getter private final String key;
+    private final String readyKey;
+    private final String buildingKey;
+    private final List<String> updateKeys;
+    private final List<String> checkKeys;
+
+    @Getter private final long size;
+    @Getter private final int hashes;
+
+    public ShardBloomFilter(RedisService redis, String key, long expectedEntries, double falsePositiveRate) {
+        this.redis = redis;
+        this.key = key;
+        this.readyKey = key + ":ready";
+        this.buildingKey = key + ":building";
+        this.updateKeys = Arrays.asList(key, buildingKey);
+        this.checkKeys = Arrays.asList(key, readyKey);
+
+        // the usual sizing: m = -n ln(p) / ln(2)^2 counters and k = m/n ln(2) hashes
+        final double n = Math.max(1, expectedEntries);
+        this.size = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.hashes = Math.max(1, (int) Math.round(size / n * Math.log(2)));
+    }
+
+    @Getter(lazy=true) private final String updateScriptSha = initUpdateScript();
+    private String initUpdateScript() {
+        return redis.loadScript(stream2string(getPackagePath(ShardBloomFilter.class)+"/bloom_filter_update.lua"));
+    }
+
+    @Getter(lazy=true) private final String checkScriptSha = initCheckScript();
+    private String initCheckScript() {
+        return redis.loadScript(stream2string(getPackagePath(ShardBloomFilter.class)+"/bloom_filter_check.lua"));
+    }
+
+    /** @return false if value definitely does not exist, true if it might */
+    public boolean mightContain(String value) {
+        try {
+            final Long found = (Long) redis.eval(getCheckScriptSha(), checkKeys, indexes(value, new ArrayList<>(hashes)));
+            return found == null || found != 0;
+        } catch (RuntimeException e) {
+            log.warn("mightContain("+key+"): "+e);
+            return true;
+        }
+    }
+
+    public void add(Collection<String> values) { update(values, 1); }
+
+    public void remove(Collection<String> values) { update(values, -1); }
+
+    private void update(Collection<String> values, int delta) {
+        final Iterator<String> iter = values.iterator();
+        while (iter.hasNext()) {
+            final List<String> args = new ArrayList<>();
+            args.add(String.valueOf(delta));
+            for (int i=0; i<MAX_VALUES_PER_CALL && iter.hasNext(); i++) indexes(iter.next(), args);
+            try {
+                redis.eval(getUpdateScriptSha(), updateKeys, args);
+            } catch (RuntimeException e) {
+                // a missed add would hide a real value, stop trusting the filter until it is rebuilt
+                log.error("update("+key+"): "+e+", disabling filter until rebuilt");
+                invalidate();
+                return;
+            }
+        }
+    }
+
+    /** start over: counters are cleared and the filter is not consulted until finishRebuild */
+    public void startRebuild() {
+        redis.set(buildingKey, "1", "EX", REBUILD_TIMEOUT);
+        redis.del(readyKey);
+        redis.del(key);
+    }
+
+    public void finishRebuild() {
+        redis.set(readyKey, "1");
+        redis.del(buildingKey);
+    }
+
+    public void invalidate() {
+        try {
+            redis.del(readyKey);
+        } catch (RuntimeException e) {
+            log.error("invalidate("+key+"): "+e);
+        }
+    }
+
+    // double hashing over the two halves of a 128-bit murmur3 hash
+    private List<String> indexes(String value, List<String> indexes) {
+        final ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(value, UTF_8).asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        final long h1 = hash.getLong(0);
+        final long h2 = hash.getLong(8);
+        for (int i=0; i<hashes; i++) {
+            indexes.add(String.valueOf(Math.floorMod(h1 + i * h2, size)));
+        }
+        return indexes;
+    }
+
+}
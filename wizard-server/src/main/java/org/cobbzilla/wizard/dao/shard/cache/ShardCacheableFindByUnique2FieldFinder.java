@@ -20,13 +20,13 @@ public class ShardCacheableFindByUnique2FieldFinder<E extends Shardable, D exten
         final String f2 = args[2].toString();
         final Object v2 = args[3];
 
-        D dao = null;
+        String hash = null;
         if (shardedDAO.getHashOn().equals(f1)) {
-            dao = shardedDAO.getDAO((String) v1);
+            hash = (String) v1;
         } else if (shardedDAO.getHashOn().equals(f2)) {
-            dao = shardedDAO.getDAO((String) v2);
+            hash = (String) v2;
         }
-        if (dao != null) return dao.findByUniqueFields(f1, v1, f2, v2);
+        if (hash != null) return shardedDAO.read(hash, "findByUniqueFields", dao -> dao.findByUniqueFields(f1, v1, f2, v2));
 
         // have to search all shards for it
         return shardedDAO.queryShardsUnique((ShardTaskFactory<E, D, E>) new ShardFindFirstBy2FieldsTask.Factory(f1, v1, f2, v2), "findByUniqueFields");
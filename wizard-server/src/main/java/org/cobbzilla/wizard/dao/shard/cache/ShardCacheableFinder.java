@@ -1,10 +1,12 @@
 package org.cobbzilla.wizard.dao.shard.cache;
 
+import com.google.common.cache.Cache;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.cobbzilla.util.json.JsonUtil;
+import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.dao.shard.AbstractShardedDAO;
 import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
 import org.cobbzilla.wizard.model.shard.Shardable;
@@ -12,6 +14,7 @@ import org.cobbzilla.wizard.model.shard.Shardable;
 import java.util.concurrent.TimeUnit;
 
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
+import static org.cobbzilla.util.reflect.ReflectionUtil.mirror;
 import static org.cobbzilla.wizard.dao.shard.AbstractShardedDAO.NULL_CACHE;
 
 @AllArgsConstructor @Accessors(chain=true)
@@ -26,24 +29,42 @@ public abstract class ShardCacheableFinder<E extends Shardable, D extends Single
     public E get(String cacheKey, Object... args) {
         if (!useCache) return (E) find(args);
         final String shardSetName = shardedDAO.getShardConfiguration().getName();
-        cacheKey = shardSetName +":" + cacheKey;
+        final String key = shardSetName +":" + cacheKey;
+
+        // L1: in-process cache, if enabled
+        final Cache<String, Object> localCache = shardedDAO.getLocalShardCache();
+        if (localCache != null) {
+            final Object cached = localCache.getIfPresent(key);
+            if (cached != null) return cached == NULL_CACHE ? null : mirror((E) cached);
+        }
+
+        // definite miss in the bloom filter: no shard has it. not cached, so no null refs to flush later
+        if (!mightExist(args)) return null;
+
+        // L2: redis
+        final RedisService cache = shardedDAO.getShardCache();
+        final int timeout = (int) getCacheTimeoutSeconds();
         E entity = null;
-        final String json = shardedDAO.getShardCache().get(cacheKey);
+        final String json = cache.get(key);
         if (json == null) {
             entity = (E) find(args);
-            if (entity == null) {
-                shardedDAO.getShardCache().set(cacheKey, NULL_CACHE, "EX", getCacheTimeoutSeconds());
-                final String cacheRefsKey = shardedDAO.getCacheRefsKey(NULL_CACHE);
-                shardedDAO.getShardCache().lpush(cacheRefsKey, cacheKey);
-            } else {
-                shardedDAO.getShardCache().set(cacheKey, toJsonOrDie(entity), "EX", getCacheTimeoutSeconds());
-                shardedDAO.getShardCache().lpush(shardedDAO.getCacheRefsKey(entity.getUuid()), cacheKey);
-            }
+            final String cacheRefsKey = shardedDAO.getCacheRefsKey(entity == null ? NULL_CACHE : entity.getUuid());
+            final String value = entity == null ? NULL_CACHE : toJsonOrDie(entity);
+            cache.pipeline(p -> p.set(key, value, "EX", timeout).lpush(cacheRefsKey, key));
+
         } else if (!json.equals(NULL_CACHE)) {
             entity = JsonUtil.fromJsonOrDie(json, shardedDAO.getEntityClass());
-            shardedDAO.getShardCache().set(cacheKey, json, "EX", getCacheTimeoutSeconds());
+            cache.expire(key, timeout);
+
+        } else {
+            cache.expire(key, timeout);
         }
+
+        if (localCache != null) localCache.put(key, entity == null ? NULL_CACHE : mirror(entity));
         return entity;
     }
 
+    // finders for a single unique field check it against the shard set's bloom filter, if it has one
+    protected boolean mightExist(Object... args) { return true; }
+
 }
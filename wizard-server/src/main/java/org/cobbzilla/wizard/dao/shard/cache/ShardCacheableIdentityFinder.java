@@ -8,8 +8,10 @@ public class ShardCacheableIdentityFinder<E extends Shardable, D extends SingleS
 
     public ShardCacheableIdentityFinder(AbstractShardedDAO<E, D> shardedDAO, long timeout) { super(shardedDAO, timeout); }
 
+    @Override protected boolean mightExist(Object... args) { return shardedDAO.mightExist("uuid", args[0]); }
+
     @Override public E find(Object... args) {
         final String id = args[0].toString();
-        return shardedDAO.getDAO(id).get(id);
+        return shardedDAO.read(id, "get", dao -> dao.get(id));
     }
 }
@@ -12,11 +12,13 @@ public class ShardCacheableUniqueFieldFinder<E extends Shardable, D extends Sing
         super(shardedDAO, timeout, useCache);
     }
 
+    @Override protected boolean mightExist(Object... args) { return shardedDAO.mightExist(args[0].toString(), args[1]); }
+
     @Override public E find(Object... args) {
         final String field = args[0].toString();
         final String value = (String) args[1];
 
-        if (shardedDAO.getHashOn().equals(field)) return shardedDAO.getDAO(value).get(value);
+        if (shardedDAO.getHashOn().equals(field)) return shardedDAO.read(value, "findByUniqueField", dao -> dao.get(value));
 
         // have to search all shards for it
         return shardedDAO.queryShardsUnique((ShardTaskFactory<E, D, E>) new ShardFindFirstByFieldTask.Factory(field, value), "findByUniqueField");
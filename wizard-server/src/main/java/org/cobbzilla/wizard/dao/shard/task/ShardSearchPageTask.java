@@ -0,0 +1,36 @@
+package org.cobbzilla.wizard.dao.shard.task;
+
+import lombok.AllArgsConstructor;
+import org.cobbzilla.wizard.dao.SearchResults;
+import org.cobbzilla.wizard.dao.shard.SimpleShardTask;
+import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
+import org.cobbzilla.wizard.model.search.ResultPage;
+import org.cobbzilla.wizard.model.shard.Shardable;
+
+import java.util.Set;
+
+public class ShardSearchPageTask<E extends Shardable, D extends SingleShardDAO<E>> extends SimpleShardTask<E, D, SearchResults<E>> {
+
+    @Override protected SearchResults<E> execTask() { return dao.search(page, entityType); }
+
+    @AllArgsConstructor
+    public static class Factory<E extends Shardable, D extends SingleShardDAO<E>>
+            extends ShardTaskFactoryBase<E, D, SearchResults<E>> {
+        private ResultPage page;
+        private String entityType;
+
+        @Override public ShardSearchPageTask<E, D> newTask(D dao) {
+            return new ShardSearchPageTask(dao, tasks, page, entityType);
+        }
+    }
+
+    private ResultPage page;
+    private String entityType;
+
+    public ShardSearchPageTask(D dao, Set<ShardTask<E, D, SearchResults<E>>> tasks, ResultPage page, String entityType) {
+        super(dao, tasks, null);
+        this.page = page;
+        this.entityType = entityType;
+    }
+
+}
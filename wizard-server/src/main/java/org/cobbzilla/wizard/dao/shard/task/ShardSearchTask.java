@@ -2,12 +2,14 @@ package org.cobbzilla.wizard.dao.shard.task;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.dao.EntityFilter;
 import org.cobbzilla.wizard.dao.shard.ShardSearch;
 import org.cobbzilla.wizard.dao.shard.SimpleShardTask;
 import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
 import org.cobbzilla.wizard.model.shard.Shardable;
 import org.cobbzilla.wizard.util.ResultCollector;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -22,7 +24,26 @@ public class ShardSearchTask <E extends Shardable, D extends SingleShardDAO<E>,
         long start = now();
         log.info(prefix+"starting");
         final ResultCollector collector = search.getCollector();
-        final List results = dao.query(search.getMaxResultsPerShard(), search.getHsql(), search.getArgs());
+        final List results = dao.query(search.getShardLimit(), search.getHsql(), search.getArgs());
+
+        if (search.isSorted()) {
+            // sort this shard's rows, keeping only the best maxResults if the collector will take all of them. the
+            // caller merges them across shards into the collector (ShardSearch.collectMerged), so the collector
+            // only ever sees the global order
+            final List<R> accepted = new ArrayList<>(results.size());
+            final EntityFilter filter = collector == null ? null : collector.getEntityFilter();
+            for (Object entity : results) {
+                if (cancelled.get()) {
+                    log.info(prefix+"cancelled from another thread, stopping search");
+                    break;
+                }
+                if (filter == null || filter.isAcceptable(entity)) accepted.add((R) entity);
+            }
+            final List<R> top = search.topN(accepted);
+            log.info(prefix + "completed with "+top.size()+" sorted results in " + formatDurationFrom(start));
+            return top;
+        }
+
         for (Object entity : results) {
             if (cancelled.get()) {
                 log.info(prefix+"cancelled from another thread, stopping search");
@@ -68,6 +68,15 @@ public class RedisMain extends BaseMain<RedisOptions> {
                 }
                 break;
 
+            case "scan":
+                redisService.scan(getKeysArg(options), options.getBatchSize(), keys -> out(StringUtil.toString(keys, "\n")));
+                break;
+
+            case "purge":
+                final long deleted = redisService.deleteMatching(getKeysArg(options), options.getBatchSize());
+                if (!quiet) out("deleted "+deleted+" keys");
+                break;
+
             default:
                 err("redis command not yet supported: "+options.getCommand());
                 break;
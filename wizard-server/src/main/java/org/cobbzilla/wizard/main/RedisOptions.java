@@ -6,6 +6,7 @@ import org.cobbzilla.util.collection.ArrayUtil;
 import org.cobbzilla.util.main.BaseMainOptions;
 import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.cache.redis.RedisConfiguration;
+import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 
@@ -49,6 +50,12 @@ public class RedisOptions extends BaseMainOptions {
     @Option(name=OPT_DISABLE_KEYS_WC, aliases=LONGOPT_DISABLE_KEYS_WC, usage=USAGE_DISABLE_KEYS_WC)
     @Getter @Setter private boolean disableKeysWildcard = false;
 
+    public static final String USAGE_BATCH_SIZE = "Number of keys to fetch per SCAN for the 'scan' and 'purge' commands";
+    public static final String OPT_BATCH_SIZE = "-b";
+    public static final String LONGOPT_BATCH_SIZE= "--batch-size";
+    @Option(name=OPT_BATCH_SIZE, aliases=LONGOPT_BATCH_SIZE, usage=USAGE_BATCH_SIZE)
+    @Getter @Setter private int batchSize = RedisService.DEFAULT_SCAN_BATCH_SIZE;
+
     public static final String USAGE_ARGS = "Redis command and arguments";
     @Argument(multiValued=true, required=true)
     @Getter @Setter private String[] args;
@@ -8,6 +8,7 @@ import org.cobbzilla.wizard.model.search.SqlViewField;
 import org.cobbzilla.wizard.util.CsvStreamingOutput;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 public class SendableCsv extends SendableResource {
@@ -25,6 +26,11 @@ public class SendableCsv extends SendableResource {
         setName(name);
     }
 
+    public SendableCsv(String name, Iterator rows, String[] fields, String[] header, Handlebars handlebars) {
+        super(new CsvStreamingOutput(rows, fields, header, handlebars));
+        setName(name);
+    }
+
     @Override public String getContentType() { return HttpContentTypes.TEXT_CSV; }
     @Override public Boolean getForceDownload() { return true; }
 
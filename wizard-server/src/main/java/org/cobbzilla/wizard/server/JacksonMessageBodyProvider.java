@@ -3,9 +3,18 @@
  */
 package org.cobbzilla.wizard.server;
 
+import com.fasterxml.jackson.annotation.JacksonAnnotation;
 import com.fasterxml.jackson.annotation.JsonIgnoreType;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.wizard.validation.InvalidEntityException;
 import org.cobbzilla.wizard.validation.Validated;
 import org.cobbzilla.wizard.validation.ValidationResult;
@@ -18,8 +27,13 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 
 /**
  * A Jersey provider which enables using Jackson to parse request entities into objects and generate
@@ -31,21 +45,51 @@ import java.lang.reflect.Type;
  * (Essentially, extends {@link JacksonJaxbJsonProvider} with validation and support for {@link
  * JsonIgnoreType}.)
  */
-@Provider
+@Provider @Slf4j
 public class JacksonMessageBodyProvider extends JacksonJaxbJsonProvider {
     /**
      * The default group array used in case any of the validate methods is called without a group.
      */
     private static final Class<?>[] DEFAULT_GROUP_ARRAY = new Class<?>[]{ Default.class };
+    private static final Class<?>[] NO_GROUPS = new Class<?>[0];
+
+    public static final String AFTERBURNER_MODULE = "com.fasterxml.jackson.module.afterburner.AfterburnerModule";
+
     private final ObjectMapper mapper;
     private final Validator validator;
 
+    // everything below is decided once per type (or per annotation array, which jersey builds once per method)
+    private final Map<Class<?>, Boolean> providable = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final Map<Annotation[], Class<?>[]> validationGroups = CacheBuilder.newBuilder().weakKeys().<Annotation[], Class<?>[]>build().asMap();
+    private final Map<Annotation[], Boolean> jacksonAnnotated = CacheBuilder.newBuilder().weakKeys().<Annotation[], Boolean>build().asMap();
+    private final ObjectWriter defaultWriter;
+
     public JacksonMessageBodyProvider(ObjectMapper mapper, Validator validator) {
         this.validator = validator;
         this.mapper = mapper;
+        this.defaultWriter = mapper.writer();
         setMapper(mapper);
     }
 
+    /**
+     * @return a copy of mapper that (de)serializes beans with generated accessors instead of reflection,
+     * or mapper itself if jackson-module-afterburner is not on the classpath
+     */
+    public static ObjectMapper withAfterburner(ObjectMapper mapper) {
+        final Module module;
+        try {
+            module = (Module) Class.forName(AFTERBURNER_MODULE).newInstance();
+        } catch (ClassNotFoundException e) {
+            log.warn("withAfterburner: "+AFTERBURNER_MODULE+" not found, using reflection");
+            return mapper;
+        } catch (Exception e) {
+            return die("withAfterburner: error creating "+AFTERBURNER_MODULE+": "+e, e);
+        }
+        return mapper.copy().registerModule(module);
+    }
+
     @Override public boolean isReadable(Class<?> type,
                                         Type genericType,
                                         Annotation[] annotations,
@@ -59,18 +103,65 @@ public class JacksonMessageBodyProvider extends JacksonJaxbJsonProvider {
                                      MediaType mediaType,
                                      MultivaluedMap<String, String> httpHeaders,
                                      InputStream entityStream) throws IOException {
-        return validate(annotations, super.readFrom(type,
-                genericType,
-                annotations,
-                mediaType,
-                httpHeaders,
-                entityStream));
+        if (hasJacksonAnnotations(annotations)) {
+            // @JsonView and friends change the reader per endpoint, let the base class sort them out
+            return validate(annotations, super.readFrom(type,
+                    genericType,
+                    annotations,
+                    mediaType,
+                    httpHeaders,
+                    entityStream));
+        }
+        final ObjectReader reader = readers.computeIfAbsent(genericType == null ? type : genericType,
+                t -> mapper.readerFor(mapper.getTypeFactory().constructType(t)));
+        final JsonParser parser = reader.getFactory().createParser(entityStream);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        // an empty body reads as null, same as the base class
+        if (parser.nextToken() == null) return validate(annotations, null);
+        return validate(annotations, reader.readValue(parser));
+    }
+
+    @Override public void writeTo(Object value,
+                                  Class<?> type,
+                                  Type genericType,
+                                  Annotation[] annotations,
+                                  MediaType mediaType,
+                                  MultivaluedMap<String, Object> httpHeaders,
+                                  OutputStream entityStream) throws IOException {
+        if (hasJacksonAnnotations(annotations) || !isUtf8(mediaType)) {
+            super.writeTo(value, type, genericType, annotations, mediaType, httpHeaders, entityStream);
+            return;
+        }
+        final JsonGenerator generator = defaultWriter.getFactory().createGenerator(entityStream, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writer(genericType).writeValue(generator, value);
+    }
+
+    private ObjectWriter writer(Type genericType) {
+        // a plain class says nothing the runtime type doesn't; only generic types (List<Foo>) need a root type
+        if (genericType == null || genericType instanceof Class) return defaultWriter;
+        return writers.computeIfAbsent(genericType, t -> mapper.writerFor(mapper.getTypeFactory().constructType(t)));
+    }
+
+    private boolean isUtf8(MediaType mediaType) {
+        final String charset = mediaType == null ? null : mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+        return charset == null || charset.equalsIgnoreCase("UTF-8");
+    }
+
+    private boolean hasJacksonAnnotations(Annotation[] annotations) {
+        if (annotations == null || annotations.length == 0) return false;
+        return jacksonAnnotated.computeIfAbsent(annotations, a -> {
+            for (Annotation annotation : a) {
+                if (annotation.annotationType().isAnnotationPresent(JacksonAnnotation.class)) return true;
+            }
+            return false;
+        });
     }
 
     private Object validate(Annotation[] annotations, Object value) {
-        final Class<?>[] classes = findValidationGroups(annotations);
+        final Class<?>[] classes = annotations == null ? NO_GROUPS : validationGroups.computeIfAbsent(annotations, this::findValidationGroups);
 
-        if (classes != null) {
+        if (classes != NO_GROUPS) {
             final ValidationResult errors = validator.validate(value, classes);
             if (!errors.isEmpty()) {
                 throw new InvalidEntityException("The request entity had the following errors: "+errors,
@@ -89,7 +180,7 @@ public class JacksonMessageBodyProvider extends JacksonJaxbJsonProvider {
                 return  ((Validated) annotation).value();
             }
         }
-        return null;
+        return NO_GROUPS;
     }
 
     @Override public boolean isWriteable(Class<?> type,
@@ -100,8 +191,10 @@ public class JacksonMessageBodyProvider extends JacksonJaxbJsonProvider {
     }
 
     private boolean isProvidable(Class<?> type) {
-        final JsonIgnoreType ignore = type.getAnnotation(JsonIgnoreType.class);
-        return (ignore == null) || !ignore.value();
+        return providable.computeIfAbsent(type, t -> {
+            final JsonIgnoreType ignore = t.getAnnotation(JsonIgnoreType.class);
+            return (ignore == null) || !ignore.value();
+        });
     }
 
     public ObjectMapper getObjectMapper() {
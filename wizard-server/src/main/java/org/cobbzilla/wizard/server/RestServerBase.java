@@ -28,7 +28,10 @@ import org.cobbzilla.wizard.server.config.factory.FileConfigurationSource;
 import org.cobbzilla.wizard.server.config.factory.StreamConfigurationSource;
 import org.cobbzilla.wizard.server.handler.StaticAssetHandler;
 import org.cobbzilla.wizard.validation.Validator;
+import org.glassfish.grizzly.http.CompressionConfig;
 import org.glassfish.grizzly.http.server.*;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -158,6 +161,7 @@ public abstract class RestServerBase<C extends RestServerConfiguration> implemen
 
         final HttpServer httpServer = new HttpServer();
         final NetworkListener listener = new NetworkListener("grizzly-"+serverName, getListenAddress(), configuration.getHttp().getPort());
+        configureListener(listener, configuration.getHttp());
         httpServer.addListener(listener);
 
         final ServerConfiguration serverConfig = httpServer.getServerConfiguration();
@@ -210,6 +214,49 @@ public abstract class RestServerBase<C extends RestServerConfiguration> implemen
         return httpServer;
     }
 
+    public static final String HTTP2_ADDON = "org.glassfish.grizzly.http2.Http2AddOn";
+
+    protected void configureListener(NetworkListener listener, HttpConfiguration http) {
+
+        final HttpCompressionConfiguration compression = http.getCompression();
+        if (compression != null && compression.isEnabled()) {
+            final CompressionConfig compressionConfig = listener.getCompressionConfig();
+            compressionConfig.setCompressionMode(CompressionConfig.CompressionMode.ON);
+            compressionConfig.setCompressionMinSize(compression.getMinSize());
+            compressionConfig.setCompressableMimeTypes(compression.getMimeTypes());
+        }
+
+        final TCPNIOTransport transport = listener.getTransport();
+        if (http.hasWorkers()) {
+            final HttpWorkerPoolConfiguration workers = http.getWorkers();
+            final ThreadPoolConfig pool = ThreadPoolConfig.defaultConfig().copy().setPoolName("grizzly-workers-"+listener.getName());
+            if (workers.hasCoreThreads()) pool.setCorePoolSize(workers.getCoreThreads());
+            if (workers.hasMaxThreads()) pool.setMaxPoolSize(workers.getMaxThreads());
+            if (workers.hasQueueLimit()) pool.setQueueLimit(workers.getQueueLimit());
+            if (pool.getCorePoolSize() > pool.getMaxPoolSize()) pool.setCorePoolSize(pool.getMaxPoolSize());
+            transport.setWorkerThreadPoolConfig(pool);
+        }
+        if (http.hasSelectorRunners()) transport.setSelectorRunnersCount(http.getSelectorRunners());
+
+        if (http.hasKeepAliveMaxRequests()) listener.getKeepAlive().setMaxRequestsCount(http.getKeepAliveMaxRequests());
+        if (http.hasKeepAliveIdleTimeoutSeconds()) listener.getKeepAlive().setIdleTimeoutInSeconds(http.getKeepAliveIdleTimeoutSeconds());
+
+        if (http.hasMaxHeaderSize()) listener.setMaxHttpHeaderSize(http.getMaxHeaderSize());
+        if (http.hasMaxRequestHeaders()) listener.setMaxRequestHeaders(http.getMaxRequestHeaders());
+        if (http.hasMaxPostSize()) listener.setMaxPostSize(http.getMaxPostSize());
+
+        // the http2 module is optional, only register it if it was deployed with the app
+        if (http.isHttp2()) {
+            try {
+                listener.registerAddOn((AddOn) Class.forName(HTTP2_ADDON).newInstance());
+            } catch (ClassNotFoundException e) {
+                log.warn("configureListener: http2 enabled but "+HTTP2_ADDON+" not found, serving HTTP/1.1 only");
+            } catch (Exception e) {
+                die("configureListener: error registering "+HTTP2_ADDON+": "+e, e);
+            }
+        }
+    }
+
     protected ResourceConfig getJerseyResourceConfig(JerseyConfiguration jerseyConfiguration) {
         final ResourceConfig rc = new PackagesResourceConfig(jerseyConfiguration.getResourcePackages());
 
@@ -227,7 +274,10 @@ public abstract class RestServerBase<C extends RestServerConfiguration> implemen
         }
 
         configuration.setValidator(new Validator());
-        rc.getSingletons().add(new JacksonMessageBodyProvider(getObjectMapper(), configuration.getValidator()));
+        final ObjectMapper mapper = jerseyConfiguration.isAfterburner()
+                ? JacksonMessageBodyProvider.withAfterburner(getObjectMapper())
+                : getObjectMapper();
+        rc.getSingletons().add(new JacksonMessageBodyProvider(mapper, configuration.getValidator()));
         rc.getSingletons().add(new StreamingOutputProvider());
         rc.getSingletons().add(new StringProvider());
         return rc;
@@ -7,6 +7,7 @@ import lombok.Setter;
 import org.cobbzilla.wizard.model.shard.ShardMap;
 import org.cobbzilla.wizard.model.shard.Shardable;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -48,7 +49,16 @@ public class DatabaseConfiguration {
 
     @JsonIgnore public String getDatabaseName() { return getUrl().substring(getUrl().lastIndexOf('/')+1); }
 
+    // set when a pooled DataSource is built for this configuration, so ad-hoc SQL can borrow from the pool
+    @JsonIgnore @Getter private DataSource dataSource;
+    private String dataSourceUrl;
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.dataSourceUrl = url;
+    }
+
     @JsonIgnore public Connection getConnection() throws SQLException {
+        if (dataSource != null && url != null && url.equals(dataSourceUrl)) return dataSource.getConnection();
         return DriverManager.getConnection(url, user, password);
     }
 
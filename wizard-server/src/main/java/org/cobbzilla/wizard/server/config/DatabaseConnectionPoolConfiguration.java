@@ -26,6 +26,11 @@ public class DatabaseConnectionPoolConfiguration {
     @Setter private Integer increment;
     public Integer getIncrement() { return increment != null ? increment : getDefaultMin(); }
 
+    // number of PreparedStatements to cache per pooled connection, 0 to disable
+    protected int getDefaultStatementCacheSize() { return 50; }
+    @Setter private Integer statementCacheSize;
+    public Integer getStatementCacheSize() { return statementCacheSize != null ? statementCacheSize : getDefaultStatementCacheSize(); }
+
     @Getter @Setter private Integer idleTest;
     public boolean hasIdleTest () { return idleTest != null; }
 
@@ -17,6 +17,14 @@ public class HibernateConfiguration {
     @Getter @Setter private String validationMode;
     @Getter @Setter private boolean applyValidatorToDDL = true;
 
+    // jdbc batching: on flush, hibernate sends inserts/updates in batches of this size. 0 disables batching
+    @Getter @Setter private int jdbcBatchSize = 50;
+    public boolean hasJdbcBatchSize () { return jdbcBatchSize > 0; }
+
+    // group statements by entity type, so batches are not broken up when several entity types are flushed together
+    @Getter @Setter private boolean orderInserts = true;
+    @Getter @Setter private boolean orderUpdates = true;
+
     public HibernateConfiguration(HibernateConfiguration other) { copy(this, other); }
 
 }
@@ -0,0 +1,24 @@
+package org.cobbzilla.wizard.server.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+// gzip/deflate for responses, used only when the client sends a matching Accept-Encoding
+@ToString
+public class HttpCompressionConfiguration {
+
+    public static final String[] DEFAULT_MIME_TYPES = {
+            "application/json", "application/javascript", "application/xml",
+            "text/html", "text/plain", "text/css", "text/csv", "text/xml"
+    };
+
+    // off unless the config turns it on, so upgrading does not change what existing deployments send
+    @Getter @Setter private boolean enabled = false;
+
+    // smaller responses are sent as-is, they gain little and cost a deflater
+    @Getter @Setter private int minSize = 1024;
+
+    @Getter @Setter private String[] mimeTypes = DEFAULT_MIME_TYPES;
+
+}
@@ -16,4 +16,34 @@ public class HttpConfiguration {
     public String getHost () throws URISyntaxException {
         return new URI(baseUri).getHost();
     }
+
+    @Getter @Setter private HttpCompressionConfiguration compression = new HttpCompressionConfiguration();
+
+    @Getter @Setter private HttpWorkerPoolConfiguration workers;
+    public boolean hasWorkers() { return workers != null; }
+
+    // threads running the NIO selectors; grizzly defaults to the number of cores
+    @Getter @Setter private Integer selectorRunners;
+    public boolean hasSelectorRunners() { return selectorRunners != null; }
+
+    // requests served on one connection before it is closed, -1 for no limit
+    @Getter @Setter private Integer keepAliveMaxRequests;
+    public boolean hasKeepAliveMaxRequests() { return keepAliveMaxRequests != null; }
+
+    @Getter @Setter private Integer keepAliveIdleTimeoutSeconds;
+    public boolean hasKeepAliveIdleTimeoutSeconds() { return keepAliveIdleTimeoutSeconds != null; }
+
+    @Getter @Setter private Integer maxHeaderSize;
+    public boolean hasMaxHeaderSize() { return maxHeaderSize != null; }
+
+    @Getter @Setter private Integer maxRequestHeaders;
+    public boolean hasMaxRequestHeaders() { return maxRequestHeaders != null; }
+
+    // max size of a request body, in bytes
+    @Getter @Setter private Long maxPostSize;
+    public boolean hasMaxPostSize() { return maxPostSize != null; }
+
+    // HTTP/2 over cleartext (h2c). needs grizzly's http2 module on the classpath
+    @Getter @Setter private boolean http2 = false;
+
 }
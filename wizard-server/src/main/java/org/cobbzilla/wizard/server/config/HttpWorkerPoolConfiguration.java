@@ -0,0 +1,21 @@
+package org.cobbzilla.wizard.server.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+// grizzly's worker thread pool; anything left null keeps grizzly's default
+@ToString
+public class HttpWorkerPoolConfiguration {
+
+    @Getter @Setter private Integer coreThreads;
+    public boolean hasCoreThreads() { return coreThreads != null; }
+
+    @Getter @Setter private Integer maxThreads;
+    public boolean hasMaxThreads() { return maxThreads != null; }
+
+    // requests waiting for a worker; -1 for unbounded
+    @Getter @Setter private Integer queueLimit;
+    public boolean hasQueueLimit() { return queueLimit != null; }
+
+}
@@ -13,4 +13,7 @@ public class JerseyConfiguration {
     @Getter @Setter private String[] responseFilters;
     public boolean hasResponseFilters() { return responseFilters != null && responseFilters.length > 0; }
 
+    // generate bean accessors for JSON instead of using reflection. needs jackson-module-afterburner on the classpath
+    @Getter @Setter private boolean afterburner = false;
+
 }
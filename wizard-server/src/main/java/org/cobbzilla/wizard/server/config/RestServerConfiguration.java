@@ -36,6 +36,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -134,13 +135,19 @@ public class RestServerConfiguration {
     public String getLoopbackApiBase() { return "http://127.0.0.1:" + getHttp().getPort() + getHttp().getBaseUri(); }
 
     public ResultSetBean execSql(String sql) { return execSql(sql, EMPTY_OBJECT_ARRAY); }
-    public ResultSetBean execSql(String sql, Object[] args) {
+    public ResultSetBean execSql(String sql, Object[] args) { return execSql(sql, args, null); }
+
+    /**
+     * @param onExecute if not null, called with the prepared statement just before it runs, so a caller on another
+     *                  thread can set a query timeout or cancel it
+     */
+    public ResultSetBean execSql(String sql, Object[] args, Consumer<Statement> onExecute) {
 
         final HasDatabaseConfiguration config = validatePgConfig("execSql");
 
         try {
             @Cleanup Connection conn = config.getDatabase().getConnection();
-            return execSql(conn, sql, args);
+            return execSql(conn, sql, args, onExecute);
 
         } catch (SQLException e) {
             throw new UncheckedSqlException(e);
@@ -155,7 +162,9 @@ public class RestServerConfiguration {
 
     @Transient @JsonIgnore @Getter @Setter private Boolean execSqlStrictStrings = null;
 
-    public ResultSetBean execSql(Connection conn, String sql, Object[] args) {
+    public ResultSetBean execSql(Connection conn, String sql, Object[] args) { return execSql(conn, sql, args, null); }
+
+    public ResultSetBean execSql(Connection conn, String sql, Object[] args, Consumer<Statement> onExecute) {
         try {
             @Cleanup PreparedStatement ps = conn.prepareStatement(sql);
             if (args != null) {
@@ -191,7 +200,10 @@ public class RestServerConfiguration {
                 }
             }
 
-            final boolean isQuery = sql.toLowerCase().trim().startsWith("select");
+            if (onExecute != null) onExecute.accept(ps);
+
+            final String verb = sql.toLowerCase().trim();
+            final boolean isQuery = verb.startsWith("select") || verb.startsWith("explain");
             if (isQuery) {
                 @Cleanup ResultSet rs = ps.executeQuery();
                 log.info("execSql (query): "+sql);
@@ -14,13 +14,28 @@ import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.core.type.filter.TypeFilter;
 import org.springframework.orm.hibernate4.HibernateTemplate;
 import org.springframework.orm.hibernate4.HibernateTransactionManager;
 import org.springframework.orm.hibernate4.LocalSessionFactoryBean;
+import org.springframework.util.ClassUtils;
 
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
 import javax.sql.DataSource;
 import java.beans.PropertyVetoException;
-import java.util.Properties;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
@@ -44,6 +59,7 @@ public class RdbmsConfigCommon {
         cpds.setUser(dbConfiguration.getUser());
         cpds.setPassword(dbConfiguration.getPassword());
         final DatabaseConnectionPoolConfiguration pool = dbConfiguration.getPool();
+        cpds.setMaxStatementsPerConnection(pool.getStatementCacheSize());
         if (pool.isEnabled()) {
             cpds.setIdentityToken(pool.getName());
             cpds.setDataSourceName(pool.getName());
@@ -57,6 +73,7 @@ public class RdbmsConfigCommon {
             ((RestServerConfiguration) configuration).getServer().addLifecycleListener(new DbPoolShutdownListener());
         }
 
+        dbConfiguration.setDataSource(cpds);
         dbConfiguration.runPostDataSourceSetupHandlers();
 
         return cpds;
@@ -78,10 +95,75 @@ public class RdbmsConfigCommon {
         factory.setNamingStrategy(ImprovedNamingStrategy.INSTANCE);
         factory.setDataSource(dataSource());
         factory.setHibernateProperties(hibernateProperties());
-        factory.setPackagesToScan(getDatabase().getHibernate().getEntityPackages());
+        final EntityScan scan = entityScan(getDatabase().getHibernate().getEntityPackages());
+        factory.setAnnotatedClasses(scan.classes);
+        factory.setAnnotatedPackages(scan.packages);
         return factory;
     }
 
+    // what setPackagesToScan would register: mapped classes, and packages whose package-info declares
+    // mappings of its own (the @TypeDefs for the encrypted types in org.cobbzilla.wizard.model.crypto)
+    private static class EntityScan {
+        private final Class<?>[] classes;
+        private final String[] packages;
+        private EntityScan(Collection<Class<?>> classes, Collection<String> packages) {
+            this.classes = classes.toArray(new Class<?>[classes.size()]);
+            this.packages = packages.toArray(new String[packages.size()]);
+        }
+    }
+
+    // every shard database gets its own session factory, but they all map the same classes: scan the classpath once
+    private static final Map<String, EntityScan> entityScans = new ConcurrentHashMap<>();
+
+    private static EntityScan entityScan(String[] packages) {
+        return entityScans.computeIfAbsent(String.join(",", packages), k -> scanEntityPackages(packages));
+    }
+
+    private static final String JPA_CONVERTER = "javax.persistence.Converter";
+    private static final String PACKAGE_INFO_SUFFIX = ".package-info";
+
+    // the same walk as LocalSessionFactoryBuilder.scanPackages
+    private static EntityScan scanEntityPackages(String[] packages) {
+        final ClassLoader loader = RdbmsConfigCommon.class.getClassLoader();
+        final List<TypeFilter> filters = new ArrayList<>();
+        filters.add(new AnnotationTypeFilter(Entity.class, false));
+        filters.add(new AnnotationTypeFilter(Embeddable.class, false));
+        filters.add(new AnnotationTypeFilter(MappedSuperclass.class, false));
+        if (ClassUtils.isPresent(JPA_CONVERTER, loader)) {
+            filters.add(new AnnotationTypeFilter(ClassUtils.resolveClassName(JPA_CONVERTER, loader).asSubclass(Annotation.class), false));
+        }
+
+        final ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(loader);
+        final MetadataReaderFactory readerFactory = new CachingMetadataReaderFactory(resolver);
+        final Set<Class<?>> classes = new LinkedHashSet<>();
+        final Set<String> packageNames = new LinkedHashSet<>();
+        try {
+            for (String pkg : packages) {
+                final String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + ClassUtils.convertClassNameToResourcePath(pkg) + "/**/*.class";
+                for (Resource resource : resolver.getResources(pattern)) {
+                    if (!resource.isReadable()) continue;
+                    final MetadataReader reader = readerFactory.getMetadataReader(resource);
+                    final String className = reader.getClassMetadata().getClassName();
+                    if (matches(filters, reader, readerFactory)) {
+                        classes.add(ClassUtils.resolveClassName(className, loader));
+                    } else if (className.endsWith(PACKAGE_INFO_SUFFIX)) {
+                        packageNames.add(className.substring(0, className.length() - PACKAGE_INFO_SUFFIX.length()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return die("scanEntityPackages: "+e, e);
+        }
+        return new EntityScan(classes, packageNames);
+    }
+
+    private static boolean matches(List<TypeFilter> filters, MetadataReader reader, MetadataReaderFactory readerFactory) throws IOException {
+        for (TypeFilter filter : filters) {
+            if (filter.match(reader, readerFactory)) return true;
+        }
+        return false;
+    }
+
     public Properties hibernateProperties() {
         final HibernateConfiguration hibernateConfiguration = getDatabase().getHibernate();
         final Properties properties = new Properties();
@@ -90,6 +172,12 @@ public class RdbmsConfigCommon {
         properties.put("hibernate.hbm2ddl.auto", hibernateConfiguration.getHbm2ddlAuto());
         properties.put("hibernate.validator.apply_to_ddl", hibernateConfiguration.isApplyValidatorToDDL());
         properties.put("javax.persistence.verification.mode", hibernateConfiguration.getValidationMode());
+        if (hibernateConfiguration.hasJdbcBatchSize()) {
+            properties.put("hibernate.jdbc.batch_size", hibernateConfiguration.getJdbcBatchSize());
+            properties.put("hibernate.jdbc.batch_versioned_data", true);
+            properties.put("hibernate.order_inserts", hibernateConfiguration.isOrderInserts());
+            properties.put("hibernate.order_updates", hibernateConfiguration.isOrderUpdates());
+        }
         return properties;
     }
 
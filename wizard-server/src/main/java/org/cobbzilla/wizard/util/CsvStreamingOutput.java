@@ -13,28 +13,60 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.apache.commons.lang3.StringEscapeUtils.escapeCsv;
+import static org.apache.commons.lang3.StringUtils.capitalize;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.reflect.ReflectionUtil.toMap;
 
+/**
+ * Writes rows as CSV while they are read: nothing is buffered beyond the current row, so the source can be a
+ * cursor over more rows than fit in memory (see AbstractShardedDAO.stream). A source that is AutoCloseable
+ * is closed when writing ends.
+ */
 @Slf4j
 public class CsvStreamingOutput implements StreamingOutput {
 
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // compiled getters, per class and field name. fields without a plain public getter map to null
+    private static final Map<Class<?>, Map<String, Optional<MethodHandle>>> getters = new ConcurrentHashMap<>();
+
     private final String[] fields;
-    private final Collection rows;
+    private final Iterator rows;
+    private final AutoCloseable source;
     private String[] header;
     private Handlebars handlebars;
 
-    public CsvStreamingOutput(Collection rows, String[] fields, String[] header, Handlebars handlebars) {
+    public CsvStreamingOutput(Iterator rows, String[] fields, String[] header, Handlebars handlebars) {
         this.rows = rows;
+        this.source = rows instanceof AutoCloseable ? (AutoCloseable) rows : null;
+        this.fields = fields;
+        this.header = header;
+        this.handlebars = handlebars;
+    }
+
+    public CsvStreamingOutput(Stream rows, String[] fields, String[] header, Handlebars handlebars) {
+        this.rows = rows.iterator();
+        this.source = rows;
         this.fields = fields;
         this.header = header;
         this.handlebars = handlebars;
     }
 
+    public CsvStreamingOutput(Collection rows, String[] fields, String[] header, Handlebars handlebars) {
+        this(rows.iterator(), fields, header, handlebars);
+    }
+
     public CsvStreamingOutput(Collection rows, String[] fields, String[] header) {
         this(rows, fields, header, null);
     }
@@ -44,45 +76,111 @@ public class CsvStreamingOutput implements StreamingOutput {
     }
 
     @Override public void write(OutputStream out) throws IOException, WebApplicationException {
+        try {
+            writeRows(out);
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (Exception e) {
+                    log.warn("write: error closing source: "+e);
+                }
+            }
+        }
+    }
+
+    private void writeRows(OutputStream out) throws IOException {
 
         if (empty(fields)) die("write: no fields specified");
 
         @Cleanup final CSVWriter writer = new CSVWriter(new OutputStreamWriter(out));
 
-        final List<Map<String, Object>> data = new ArrayList<>();
-        final boolean defaultHeaders = empty(header);
-        final Set<String> columns = defaultHeaders ? new HashSet<>() : null;
-        for (Object row : rows) {
-            final Map<String, Object> map = new HashMap<>();
-            for (String field : fields) {
-                if (field.startsWith("'") && field.endsWith("'")) {
-                    map.put(field, field.substring(1, field.length()-1));
+        // resolve each column once: a literal, a template, or a property.
+        // templates go through HandlebarsUtil so [[[x]]] and other delimiter forms mean what they always have
+        final Object[] literals = new Object[fields.length];
+        final boolean[] templates = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            final String field = fields[i];
+            if (field.startsWith("'") && field.endsWith("'")) {
+                literals[i] = field.substring(1, field.length()-1);
+
+            } else if (handlebars != null && field.contains("[[") && field.contains("]]")) {
+                templates[i] = true;
+            }
+        }
+
+        writer.writeNext(empty(header) ? fields : header); // header row
 
-                } else if (handlebars != null && field.contains("[[") && field.contains("]]")) {
-                    final Map<String, Object> ctx = toMap(row);
-                    if (row instanceof HasRelatedEntities) ctx.putAll(((HasRelatedEntities) row).getRelated());
-                    map.put(field, HandlebarsUtil.apply(handlebars, field, ctx, '[', ']'));
+        Class<?> rowClass = null;
+        Function<Object, Object>[] accessors = null;
+        final String[] line = new String[fields.length];
+        while (rows.hasNext()) {
+            final Object row = rows.next();
+            if (row != null && row.getClass() != rowClass) {
+                rowClass = row.getClass();
+                accessors = accessors(rowClass);
+            }
+            Map<String, Object> ctx = null;
+            for (int i = 0; i < line.length; i++) {
+                final Object value;
+                if (literals[i] != null) {
+                    value = literals[i];
+
+                } else if (templates[i]) {
+                    // the context is only built for rows that use it, and only once per row
+                    if (ctx == null) {
+                        ctx = toMap(row);
+                        if (row instanceof HasRelatedEntities) ctx.putAll(((HasRelatedEntities) row).getRelated());
+                    }
+                    value = HandlebarsUtil.apply(handlebars, fields[i], ctx, '[', ']');
 
                 } else {
-                    map.put(field, ReflectionUtil.get(row, field, null));
+                    value = row == null ? null : accessors[i].apply(row);
                 }
+                line[i] = empty(value) ? "" : escapeCsv(value.toString());
             }
-            data.add(map);
-            if (defaultHeaders) columns.addAll(map.keySet());
+            writer.writeNext(line, false);
         }
+    }
 
-        if (defaultHeaders) header = columns.toArray(new String[columns.size()]);
-        writer.writeNext(header); // header row
+    private Function<Object, Object>[] accessors(Class<?> clazz) {
+        final Map<String, Optional<MethodHandle>> classGetters = getters.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>());
+        final Function<Object, Object>[] accessors = new Function[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            final String field = fields[i];
+            final MethodHandle getter = classGetters.computeIfAbsent(field, f -> Optional.ofNullable(getter(clazz, f))).orElse(null);
+            if (getter == null) {
+                // nested paths (related.foo.bar) and anything else ReflectionUtil knows how to find
+                accessors[i] = row -> ReflectionUtil.get(row, field, null);
+            } else {
+                accessors[i] = row -> {
+                    try {
+                        return (Object) getter.invokeExact(row);
+                    } catch (Throwable t) {
+                        return null; // same as ReflectionUtil.get with a null default
+                    }
+                };
+            }
+        }
+        return accessors;
+    }
 
-        for (Map<String, Object> row : data) {
-            final String[] line = new String[fields.length];
-            for (int i = 0; i < line.length; i++) {
-                final String field = fields[i];
-                final Object value = row.get(field);
-                line[i] = empty(value) ? "" : escapeCsv(value.toString());
+    private static MethodHandle getter(Class<?> clazz, String field) {
+        if (field.contains(".")) return null;
+        for (String prefix : new String[] {"get", "is"}) {
+            try {
+                final Method m = clazz.getMethod(prefix + capitalize(field));
+                if (m.getParameterCount() != 0 || m.getReturnType() == void.class) continue;
+                return MethodHandles.publicLookup().unreflect(m).asType(GETTER_TYPE);
+            } catch (NoSuchMethodException ignored) {
+                // try the next prefix
+            } catch (Exception e) {
+                // e.g. a public method inherited from a non-public class
+                log.debug("getter("+clazz.getName()+"."+field+"): "+e);
+                return null;
             }
-            writer.writeNext(line, false);
         }
+        return null;
     }
 
 }
@@ -0,0 +1,60 @@
+package org.cobbzilla.wizard.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Makes shallow copies of objects by copying every non-static field. The constructor and fields are
+ * looked up once per class, so each copy costs one instantiation plus one get/set per field.
+ */
+public class FieldCopier<T> {
+
+    private static final Map<Class<?>, FieldCopier<?>> copiers = new ConcurrentHashMap<>();
+
+    public static <T> FieldCopier<T> forClass(Class<T> clazz) {
+        return (FieldCopier<T>) copiers.computeIfAbsent(clazz, FieldCopier::new);
+    }
+
+    public static <T> T copyOf(T thing) {
+        return thing == null ? null : forClass((Class<T>) thing.getClass()).copy(thing);
+    }
+
+    private final Constructor<T> constructor;
+    private final Field[] fields;
+
+    private FieldCopier(Class<T> clazz) {
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("FieldCopier: no default constructor for "+clazz.getName()+": "+e, e);
+        }
+        final List<Field> list = new ArrayList<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || f.isSynthetic()) continue;
+                f.setAccessible(true);
+                list.add(f);
+            }
+        }
+        fields = list.toArray(new Field[list.size()]);
+    }
+
+    public T copy(T thing) {
+        try {
+            final T copy = constructor.newInstance();
+            for (Field f : fields) f.set(copy, f.get(thing));
+            return copy;
+        } catch (Exception e) {
+            return die("copy: error copying "+thing.getClass().getName()+": "+e, e);
+        }
+    }
+
+}
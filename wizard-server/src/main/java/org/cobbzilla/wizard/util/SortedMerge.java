@@ -0,0 +1,75 @@
+package org.cobbzilla.wizard.util;
+
+import java.util.*;
+
+/**
+ * Top-N helpers for sorted fan-out queries: each shard trims its own rows to the best N, then the
+ * per-shard lists are merged through a heap holding one cursor per shard, stopping after N results.
+ */
+public class SortedMerge {
+
+    /** @return the first n elements of things according to comparator, sorted. things is not modified */
+    public static <T> List<T> topN(Collection<T> things, Comparator<? super T> comparator, int n) {
+        if (n <= 0 || things.isEmpty()) return new ArrayList<>();
+        if (n >= things.size()) {
+            final List<T> sorted = new ArrayList<>(things);
+            sorted.sort(comparator);
+            return sorted;
+        }
+
+        // max-heap of the best n seen so far; the root is the worst of them
+        final PriorityQueue<T> heap = new PriorityQueue<>(n, comparator.reversed());
+        for (T thing : things) {
+            if (heap.size() < n) {
+                heap.add(thing);
+            } else if (comparator.compare(thing, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(thing);
+            }
+        }
+        final List<T> sorted = new ArrayList<>(heap);
+        sorted.sort(comparator);
+        return sorted;
+    }
+
+    /** @return the first n elements across lists, each of which must already be sorted according to comparator */
+    public static <T> List<T> merge(Collection<? extends List<T>> lists, Comparator<? super T> comparator, int n) {
+        final List<T> merged = new ArrayList<>(Math.min(n, 1000));
+        if (n <= 0) return merged;
+        for (Iterator<T> iter = iterator(lists, comparator); iter.hasNext() && merged.size() < n; ) merged.add(iter.next());
+        return merged;
+    }
+
+    /**
+     * @return every element across lists in order, merged as they are read, for callers that do not know up front
+     * how many they will need. each list must already be sorted according to comparator
+     */
+    public static <T> Iterator<T> iterator(Collection<? extends List<T>> lists, Comparator<? super T> comparator) {
+        final PriorityQueue<Cursor<T>> heap = new PriorityQueue<>(Math.max(1, lists.size()), (c1, c2) -> comparator.compare(c1.head, c2.head));
+        for (List<T> list : lists) {
+            if (list != null && !list.isEmpty()) heap.add(new Cursor<>(list.iterator()));
+        }
+        return new Iterator<T>() {
+            @Override public boolean hasNext() { return !heap.isEmpty(); }
+            @Override public T next() {
+                if (heap.isEmpty()) throw new NoSuchElementException();
+                final Cursor<T> cursor = heap.poll();
+                final T thing = cursor.head;
+                if (cursor.advance()) heap.add(cursor);
+                return thing;
+            }
+        };
+    }
+
+    private static class Cursor<T> {
+        private final Iterator<T> iter;
+        private T head;
+        Cursor(Iterator<T> iter) { this.iter = iter; this.head = iter.next(); }
+        boolean advance() {
+            if (!iter.hasNext()) return false;
+            head = iter.next();
+            return true;
+        }
+    }
+
+}
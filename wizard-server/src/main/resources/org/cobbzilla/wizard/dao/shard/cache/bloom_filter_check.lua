@@ -0,0 +1,19 @@
+-- KEYS[1]: counters (a string of 8-bit counters), KEYS[2]: marker set once the filter holds every existing value
+-- ARGV[1..n]: counter indexes
+-- returns 1 if the value may exist, 0 if it definitely does not, -1 if the filter is not ready
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    return -1
+end
+local args = {}
+for i=1,#ARGV do
+    table.insert(args, 'GET')
+    table.insert(args, 'u8')
+    table.insert(args, '#' .. ARGV[i])
+end
+local counts = redis.call('BITFIELD', KEYS[1], unpack(args))
+for i=1,#counts do
+    if counts[i] == 0 then
+        return 0
+    end
+end
+return 1
@@ -0,0 +1,48 @@
+-- KEYS[1]: counters (a string of 8-bit counters), KEYS[2]: marker set while the filter is being rebuilt
+-- ARGV[1]: delta (1 to add, -1 to remove), ARGV[2..n]: counter indexes
+local MAX = 255
+local CHUNK = 1000  -- BITFIELD sub-commands per call, keeps unpack well under the Lua stack limit
+local delta = tonumber(ARGV[1])
+if delta < 0 and redis.call('EXISTS', KEYS[2]) == 1 then
+    return 0  -- a removal during a rebuild could zero a counter the rebuild has not counted yet, skip it
+end
+
+-- run op on every index in chunks, prefix goes before each chunk's sub-commands. returns the replies in order
+local function bitfield(prefix, op, indexes)
+    local replies = {}
+    local i = 1
+    while i <= #indexes do
+        local args = {}
+        for _, a in ipairs(prefix) do table.insert(args, a) end
+        for j=i,math.min(i+CHUNK-1, #indexes) do op(args, indexes[j]) end
+        for _, r in ipairs(redis.call('BITFIELD', KEYS[1], unpack(args))) do table.insert(replies, r) end
+        i = i + CHUNK
+    end
+    return replies
+end
+
+local indexes = {}
+for i=2,#ARGV do table.insert(indexes, ARGV[i]) end
+
+-- a counter that reached MAX has lost count of how many values map to it, so it stays there for good:
+-- decrementing it could bring it to 0 while values still map to it
+if delta < 0 then
+    local counts = bitfield({}, function (args, index)
+        table.insert(args, 'GET'); table.insert(args, 'u8'); table.insert(args, '#' .. index)
+    end, indexes)
+    local sticky = {}
+    for i=1,#counts do
+        if counts[i] >= MAX then sticky[indexes[i]] = true end
+    end
+    local keep = {}
+    for _, index in ipairs(indexes) do
+        if not sticky[index] then table.insert(keep, index) end
+    end
+    indexes = keep
+end
+
+-- counters stop at 0 and MAX instead of wrapping
+bitfield({'OVERFLOW', 'SAT'}, function (args, index)
+    table.insert(args, 'INCRBY'); table.insert(args, 'u8'); table.insert(args, '#' .. index); table.insert(args, delta)
+end, indexes)
+return 1
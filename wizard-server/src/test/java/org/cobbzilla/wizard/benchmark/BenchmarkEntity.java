@@ -0,0 +1,41 @@
+package org.cobbzilla.wizard.benchmark;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.cobbzilla.wizard.model.IdentifiableBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// a typical entity: a handful of strings, a number, a flag and a small collection
+@Accessors(chain=true)
+public class BenchmarkEntity extends IdentifiableBase {
+
+    @Getter @Setter private String name;
+    @Getter @Setter private String email;
+    @Getter @Setter private String description;
+    @Getter @Setter private int count;
+    @Getter @Setter private boolean active;
+    @Getter @Setter private List<String> tags = new ArrayList<>();
+
+    public static BenchmarkEntity sample(int i) {
+        final BenchmarkEntity e = new BenchmarkEntity()
+                .setName("entity-"+i)
+                .setEmail("entity-"+i+"@example.com")
+                .setDescription("a benchmark entity, number "+i)
+                .setCount(i)
+                .setActive(i % 2 == 0);
+        e.getTags().add("tag-"+(i % 10));
+        e.setUuid(UUID.randomUUID().toString());
+        return e;
+    }
+
+    public static List<BenchmarkEntity> samples(int n) {
+        final List<BenchmarkEntity> list = new ArrayList<>(n);
+        for (int i=0; i<n; i++) list.add(sample(i));
+        return list;
+    }
+
+}
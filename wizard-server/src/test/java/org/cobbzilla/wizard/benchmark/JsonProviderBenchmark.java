@@ -0,0 +1,97 @@
+package org.cobbzilla.wizard.benchmark;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import com.sun.jersey.core.header.OutBoundHeaders;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import org.cobbzilla.wizard.dao.SearchResults;
+import org.cobbzilla.wizard.server.JacksonMessageBodyProvider;
+import org.cobbzilla.wizard.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.json.JsonUtil.NOTNULL_MAPPER;
+
+/**
+ * Request and response bodies through JacksonMessageBodyProvider (wizard) versus the stock
+ * JacksonJaxbJsonProvider it extends (jackson), both on the mapper RestServerBase uses by default:
+ * one entity, and a SearchResults page of pageSize entities, each written, read, and round-tripped.
+ *
+ * Run with: mvn -pl wizard-server test-compile, then
+ * java -cp wizard-server/target/test-classes:(test classpath) org.openjdk.jmh.Main JsonProviderBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1) @Measurement(iterations=5, time=1) @Fork(1)
+public class JsonProviderBenchmark {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private static final MediaType JSON = MediaType.APPLICATION_JSON_TYPE;
+
+    // declared only for its generic type, which is what jersey passes for a method returning a page
+    private static SearchResults<BenchmarkEntity> pageDeclaration;
+    private static final Type PAGE_TYPE = pageType();
+    private static Type pageType() {
+        try {
+            return JsonProviderBenchmark.class.getDeclaredField("pageDeclaration").getGenericType();
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Param({"wizard", "jackson"}) public String provider;
+    @Param({"10", "100"}) public int pageSize;
+
+    private JacksonJaxbJsonProvider json;
+    private BenchmarkEntity entity;
+    private SearchResults<BenchmarkEntity> page;
+    private byte[] entityBytes;
+    private byte[] pageBytes;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup public void setup() throws IOException {
+        if (provider.equals("wizard")) {
+            json = new JacksonMessageBodyProvider(NOTNULL_MAPPER, new Validator());
+        } else {
+            json = new JacksonJaxbJsonProvider();
+            json.setMapper(NOTNULL_MAPPER);
+        }
+        entity = BenchmarkEntity.sample(1);
+        page = new SearchResults<>(BenchmarkEntity.samples(pageSize), 10 * pageSize);
+        entityBytes = write(entity, BenchmarkEntity.class, BenchmarkEntity.class);
+        pageBytes = write(page, SearchResults.class, PAGE_TYPE);
+    }
+
+    private byte[] write(Object value, Class<?> type, Type genericType) throws IOException {
+        out.reset();
+        json.writeTo(value, type, genericType, NO_ANNOTATIONS, JSON, new OutBoundHeaders(), out);
+        return out.toByteArray();
+    }
+
+    private Object read(byte[] bytes, Class type, Type genericType) throws IOException {
+        return json.readFrom(type, genericType, NO_ANNOTATIONS, JSON, new MultivaluedMapImpl(), new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark public byte[] writeEntity() throws IOException { return write(entity, BenchmarkEntity.class, BenchmarkEntity.class); }
+
+    @Benchmark public Object readEntity() throws IOException { return read(entityBytes, BenchmarkEntity.class, BenchmarkEntity.class); }
+
+    @Benchmark public Object roundTripEntity() throws IOException {
+        return read(write(entity, BenchmarkEntity.class, BenchmarkEntity.class), BenchmarkEntity.class, BenchmarkEntity.class);
+    }
+
+    @Benchmark public byte[] writePage() throws IOException { return write(page, SearchResults.class, PAGE_TYPE); }
+
+    @Benchmark public Object readPage() throws IOException { return read(pageBytes, SearchResults.class, PAGE_TYPE); }
+
+    @Benchmark public Object roundTripPage() throws IOException {
+        return read(write(page, SearchResults.class, PAGE_TYPE), SearchResults.class, PAGE_TYPE);
+    }
+
+}
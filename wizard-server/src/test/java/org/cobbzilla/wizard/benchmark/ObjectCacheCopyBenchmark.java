@@ -0,0 +1,51 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.cobbzilla.wizard.util.FieldCopier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a cache hit costs in each AbstractCRUDDAO ObjectCacheMode: mirror (ReflectionUtil.mirror),
+ * snapshot (FieldCopier) and shared (no copy), for one entity and for a cached list of entities.
+ *
+ * Run with: mvn -pl wizard-server test-compile, then
+ * java -cp wizard-server/target/test-classes:(test classpath) org.openjdk.jmh.Main ObjectCacheCopyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1) @Measurement(iterations=5, time=1) @Fork(1)
+public class ObjectCacheCopyBenchmark {
+
+    @Param({"1", "50"}) public int listSize;
+
+    private BenchmarkEntity entity;
+    private List<BenchmarkEntity> list;
+
+    @Setup public void setup() {
+        entity = BenchmarkEntity.sample(1);
+        list = BenchmarkEntity.samples(listSize);
+    }
+
+    @Benchmark public BenchmarkEntity mirrorEntity() { return ReflectionUtil.mirror(entity); }
+
+    @Benchmark public BenchmarkEntity snapshotEntity() { return FieldCopier.copyOf(entity); }
+
+    @Benchmark public List<BenchmarkEntity> mirrorList() {
+        final List<BenchmarkEntity> copy = new ArrayList<>(list.size());
+        for (BenchmarkEntity e : list) copy.add(ReflectionUtil.mirror(e));
+        return copy;
+    }
+
+    @Benchmark public List<BenchmarkEntity> snapshotList() {
+        final List<BenchmarkEntity> copy = new ArrayList<>(list.size());
+        for (BenchmarkEntity e : list) copy.add(FieldCopier.copyOf(e));
+        return copy;
+    }
+
+    @Benchmark public List<BenchmarkEntity> sharedList() { return list; }
+
+}
@@ -0,0 +1,71 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.wizard.dao.shard.ShardRoutingTable;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.model.shard.ShardRange;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
+
+/**
+ * Cost of routing one id to its DAOs: the old path (hex digest, parse, scan every shard map) against
+ * ShardRoutingTable (binary digest, array lookup). The hash benchmarks isolate the digest step.
+ *
+ * Run with: mvn -pl wizard-server test-compile, then
+ * java -cp wizard-server/target/test-classes:(test classpath) org.openjdk.jmh.Main ShardRoutingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1) @Measurement(iterations=5, time=1) @Fork(1)
+public class ShardRoutingBenchmark {
+
+    public static final int LOGICAL_SHARDS = 1024;
+    public static final int ID_COUNT = 1024;
+
+    // physical shards, each with a primary and one replica
+    @Param({"4", "32"}) public int shards;
+
+    private List<ShardMap> maps;
+    private ShardRoutingTable<String> table;
+    private String[] ids;
+    private int next = 0;
+
+    @Setup public void setup() {
+        maps = new ArrayList<>();
+        final int width = LOGICAL_SHARDS / shards;
+        for (int i=0; i<shards; i++) {
+            final ShardRange range = new ShardRange(i*width, i == shards-1 ? LOGICAL_SHARDS : (i+1)*width);
+            for (int replica=0; replica<2; replica++) {
+                maps.add(new ShardMap().setShardSet("benchmark").setRange(range)
+                        .setUrl("jdbc:postgresql://db-"+i+"-"+replica+"/benchmark")
+                        .setAllowRead(true).setAllowWrite(replica == 0));
+            }
+        }
+        table = new ShardRoutingTable<>(1, LOGICAL_SHARDS, maps, maps, () -> maps.get(0), ShardMap::getUrl);
+        ids = new String[ID_COUNT];
+        for (int i=0; i<ids.length; i++) ids[i] = UUID.randomUUID().toString();
+    }
+
+    private String nextId() { return ids[next++ & (ID_COUNT-1)]; }
+
+    @Benchmark public int legacyHash() {
+        return (int) (Long.valueOf(sha256_hex(nextId()).substring(0, 7), 16) % LOGICAL_SHARDS);
+    }
+
+    @Benchmark public int tableHash() { return ShardRoutingTable.logicalShard(nextId(), LOGICAL_SHARDS); }
+
+    @Benchmark public List<String> legacyRoute() {
+        final int shard = legacyHash();
+        final List<String> daos = new ArrayList<>();
+        for (ShardMap m : maps) if (m.mapsShard(shard)) daos.add(m.getUrl());
+        return daos;
+    }
+
+    @Benchmark public List<String> tableRoute() { return table.getDAOs(table.getLogicalShard(nextId())); }
+
+}
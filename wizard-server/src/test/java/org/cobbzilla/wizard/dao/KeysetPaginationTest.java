@@ -0,0 +1,88 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.cobbzilla.wizard.model.IdentifiableBase;
+import org.cobbzilla.wizard.model.search.ResultPage;
+import org.cobbzilla.wizard.model.search.ResultPage.SortOrder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class KeysetPaginationTest {
+
+    @Accessors(chain=true)
+    public static class Named extends IdentifiableBase {
+        @Getter @Setter private String name;
+    }
+
+    private ResultPage page(String sortField, SortOrder order, boolean keyset) {
+        final ResultPage page = new ResultPage(1, 10, sortField, order);
+        page.setKeyset(keyset);
+        return page;
+    }
+
+    private Named entity(String name, String uuid) {
+        final Named e = new Named().setName(name);
+        e.setUuid(uuid);
+        return e;
+    }
+
+    private List<String> sortedUuids(List<Named> entities, ResultPage page) {
+        final List<Named> sorted = new ArrayList<>(entities);
+        sorted.sort(KeysetPagination.comparator(page));
+        return sorted.stream().map(Named::getUuid).collect(Collectors.toList());
+    }
+
+    private final List<Named> ENTITIES = asList(
+            entity("b", "u4"), entity(null, "u2"), entity("a", "u5"), entity("b", "u1"), entity(null, "u3"));
+
+    @Test
+    public void testAscendingNullsLast () {
+        assertEquals(asList("u5", "u1", "u4", "u2", "u3"), sortedUuids(ENTITIES, page("name", SortOrder.ASC, true)));
+    }
+
+    @Test
+    public void testDescendingNullsFirst () {
+        assertEquals(asList("u3", "u2", "u4", "u1", "u5"), sortedUuids(ENTITIES, page("name", SortOrder.DESC, true)));
+    }
+
+    @Test
+    public void testUuidTiebreakOnlyWhenKeyset () {
+        final Named e1 = entity("same", "u1");
+        final Named e2 = entity("same", "u2");
+        assertEquals(-1, Integer.signum(KeysetPagination.<Named>comparator(page("name", SortOrder.ASC, true)).compare(e1, e2)));
+        assertEquals(1, Integer.signum(KeysetPagination.<Named>comparator(page("name", SortOrder.DESC, true)).compare(e1, e2)));
+        assertEquals(0, KeysetPagination.<Named>comparator(page("name", SortOrder.ASC, false)).compare(e1, e2));
+    }
+
+    @Test
+    public void testOrderBy () {
+        assertEquals("x.name ASC, x.uuid ASC", KeysetPagination.orderBy("x", page("name", SortOrder.ASC, true)));
+        assertEquals("x.name DESC", KeysetPagination.orderBy("x", page("name", SortOrder.DESC, false)));
+        assertEquals("x.uuid DESC", KeysetPagination.orderBy("x", page("uuid", SortOrder.DESC, true)));
+    }
+
+    @Test
+    public void testAfterClause () {
+        assertEquals("(x.name > :keysetAfterValue or (x.name = :keysetAfterValue and x.uuid > :keysetAfterUuid) or x.name is null) ",
+                     KeysetPagination.afterClause("x", page("name", SortOrder.ASC, true), true));
+        assertEquals("(x.name < :keysetAfterValue or (x.name = :keysetAfterValue and x.uuid < :keysetAfterUuid)) ",
+                     KeysetPagination.afterClause("x", page("name", SortOrder.DESC, true), true));
+
+        // the previous page ended on a null: ascending, only nulls remain; descending, every non-null remains
+        assertEquals("(x.name is null and x.uuid > :keysetAfterUuid) ",
+                     KeysetPagination.afterClause("x", page("name", SortOrder.ASC, true), false));
+        assertEquals("(x.name is null and x.uuid < :keysetAfterUuid or x.name is not null) ",
+                     KeysetPagination.afterClause("x", page("name", SortOrder.DESC, true), false));
+
+        assertEquals("(x.uuid > :keysetAfterUuid) ", KeysetPagination.afterClause("x", page("uuid", SortOrder.ASC, true), true));
+    }
+
+}
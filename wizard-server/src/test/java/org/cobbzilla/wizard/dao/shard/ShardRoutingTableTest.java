@@ -0,0 +1,47 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
+import static org.junit.Assert.assertEquals;
+
+public class ShardRoutingTableTest {
+
+    public static final int[] LOGICAL_SHARDS = { 1, 7, 100, 1024, 65536, 1 << 28 };
+
+    public static final String[] IDS = {
+            "", "0", "a", "1234567890", "00000000-0000-0000-0000-000000000000",
+            "user@example.com", "~!@#$%^&*()_+`-=[]{}|;':,./<>?\"\\",
+            "\u00fcber", "na\u00efve caf\u00e9", "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8", "\u03a9\u03bc\u03ad\u03b3\u03b1", "emoji \ud83d\ude00 id", "\u0080", "\u07ff\u0800\uffff"
+    };
+
+    // what AbstractShardedDAO.getLogicalShard did before the routing table: parse the first 7 hex digits
+    private int legacyLogicalShard(String id, int logicalShards) {
+        final long val = Long.valueOf(sha256_hex(id).substring(0, 7), 16);
+        return (int) (Math.abs(val) % logicalShards);
+    }
+
+    private void assertSameShard(String id) {
+        for (int logicalShards : LOGICAL_SHARDS) {
+            assertEquals("wrong shard for id="+id+", logicalShards="+logicalShards,
+                         legacyLogicalShard(id, logicalShards), ShardRoutingTable.logicalShard(id, logicalShards));
+        }
+    }
+
+    @Test
+    public void testFixedIds () {
+        for (String id : IDS) assertSameShard(id);
+    }
+
+    @Test
+    public void testRandomIds () {
+        for (int i=0; i<5000; i++) {
+            final String uuid = UUID.randomUUID().toString();
+            assertSameShard(uuid);
+            assertSameShard(uuid + "\u00e9"); // the same id forced down the non-ASCII path
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import org.cobbzilla.wizard.util.ResultCollectorBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class ShardSearchTest {
+
+    // a custom collector that drops odd numbers and remembers everything it was offered
+    public static class EvenCollector extends ResultCollectorBase {
+        public final List<Object> offered = new ArrayList<>();
+        @Override public boolean addResult(Object thing) {
+            offered.add(thing);
+            if (((Integer) thing) % 2 != 0) return true;
+            return super.addResult(thing);
+        }
+    }
+
+    @Test
+    public void testSortedResultsGoThroughCollector () {
+        final EvenCollector collector = new EvenCollector();
+        final ShardSearch search = new ShardSearch("from Foo", null)
+                .setCollector(collector)
+                .setComparator(Comparator.<Integer>naturalOrder())
+                .setMaxResults(3);
+
+        final List<List<Integer>> shards = asList(asList(1, 4, 6, 9), asList(2, 3, 8), asList(5, 10));
+        final List<Integer> results = search.collectMerged(shards);
+
+        // rows the collector turns down do not use up the page: it is offered rows in order until it holds 3
+        assertEquals(asList(1, 2, 3, 4, 5, 6), collector.offered);
+        assertEquals(asList(2, 4, 6), results);
+    }
+
+    @Test
+    public void testCollectMergedWithoutCollector () {
+        final ShardSearch search = new ShardSearch("from Foo", null)
+                .setComparator(Comparator.<Integer>naturalOrder())
+                .setMaxResults(4);
+        search.setCollector(null);
+        final List<List<Integer>> shards = asList(asList(1, 4, 6, 9), asList(2, 3, 8), asList(5, 10));
+        assertEquals(asList(1, 2, 3, 4), search.collectMerged(shards));
+    }
+
+    @Test
+    public void testShardLimit () {
+        final ShardSearch search = new ShardSearch("from Foo order by x", null)
+                .setComparator(Comparator.<Integer>naturalOrder())
+                .setMaxResults(10)
+                .setMaxResultsPerShard(100)
+                .setPresorted(true);
+        assertEquals(10, search.getShardLimit());
+
+        // rows can be turned down after the query, so each shard has to return more than the page
+        search.getCollector().setEntityFilter(thing -> ((Integer) thing) % 2 == 0);
+        assertEquals(100, search.getShardLimit());
+
+        search.setCollector(new EvenCollector().setMaxResults(2));
+        assertEquals(100, search.getShardLimit());
+    }
+
+    @Test
+    public void testTopNKeepsEveryRowForCustomCollector () {
+        final ShardSearch search = new ShardSearch("from Foo", null)
+                .setComparator(Comparator.<Integer>naturalOrder())
+                .setMaxResults(2);
+        assertEquals(asList(1, 2), search.topN(asList(5, 4, 3, 2, 1)));
+
+        search.setCollector(new EvenCollector());
+        assertEquals(asList(1, 2, 3, 4, 5), search.topN(asList(5, 4, 3, 2, 1)));
+    }
+
+    @Test
+    public void testOldConstructor () {
+        final ShardSearch search = new ShardSearch("hash", "from Foo", null, new ResultCollectorBase(), null, 10, 20, 1000L);
+        assertEquals("hash", search.getHash());
+        assertEquals(10, search.getMaxResults());
+        assertEquals(20, search.getMaxResultsPerShard());
+        assertEquals(Long.valueOf(1000L), search.getTimeout());
+    }
+
+}
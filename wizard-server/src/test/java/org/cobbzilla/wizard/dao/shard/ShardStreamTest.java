@@ -0,0 +1,91 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardStreamTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After public void shutdown () { executor.shutdownNow(); }
+
+    private ShardStream<Integer> rows(ShardStream<Integer> stream, int from, int to) {
+        return stream.addShard(executor, sink -> { for (int i = from; i < to; i++) sink.accept(i); });
+    }
+
+    @Test
+    public void testReadsEveryShard () {
+        final ShardStream<Integer> stream = new ShardStream<>(4);
+        rows(stream, 0, 100);
+        rows(stream, 100, 250);
+        final List<Integer> all = new ArrayList<>();
+        stream.forEachRemaining(all::add);
+        assertEquals(250, all.size());
+        all.sort(Integer::compare);
+        for (int i = 0; i < all.size(); i++) assertEquals(i, (int) all.get(i));
+    }
+
+    @Test(timeout=5000)
+    public void testNoMoreRowsAfterClose () {
+        final ShardStream<Integer> stream = new ShardStream<>(4);
+        rows(stream, 0, 1000);
+        assertTrue(stream.hasNext());
+        stream.next();
+        stream.close();
+        assertFalse(stream.hasNext());
+    }
+
+    @Test(timeout=5000)
+    public void testCloseFromAnotherThreadWakesReader () throws Exception {
+        final CountDownLatch never = new CountDownLatch(1);
+        final ShardStream<Integer> stream = new ShardStream<>(4);
+        stream.addShard(executor, sink -> {
+            try {
+                never.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException ignored) {
+                // close anyway
+            }
+            stream.close();
+        });
+        assertFalse(stream.hasNext());
+    }
+
+    @Test(timeout=5000)
+    public void testAbandonedStreamReleasesReaders () throws Exception {
+        final CountDownLatch readerDone = new CountDownLatch(1);
+        final ShardStream<Integer> stream = new ShardStream<>(4, 300);
+        stream.addShard(executor, sink -> {
+            try {
+                for (int i = 0; i < 1000; i++) sink.accept(i);
+            } finally {
+                readerDone.countDown();
+            }
+        });
+        stream.next();
+        // the consumer walks away without closing: the reader must give up rather than wait forever
+        assertTrue(readerDone.await(3, TimeUnit.SECONDS));
+        try {
+            stream.hasNext();
+            fail("expected an error reading an abandoned stream");
+        } catch (RuntimeException expected) {
+            // the consumer is told the stream was closed under it, instead of seeing a short read
+        }
+    }
+
+}
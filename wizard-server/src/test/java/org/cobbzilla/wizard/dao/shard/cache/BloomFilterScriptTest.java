@@ -0,0 +1,192 @@
+package org.cobbzilla.wizard.dao.shard.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the bloom filter lua scripts against a minimal in-memory redis: EXISTS, and BITFIELD with u8 GET/INCRBY
+ * and OVERFLOW SAT, which is all the scripts use.
+ */
+public class BloomFilterScriptTest {
+
+    private static final String COUNTERS = "bloom";
+    private static final String BUILDING = "bloom:building";
+    private static final String READY = "bloom:ready";
+
+    private final Map<String, int[]> counters = new HashMap<>();
+    private final Set<String> markers = new HashSet<>();
+
+    @Before public void reset () {
+        counters.clear();
+        markers.clear();
+        markers.add(READY);
+    }
+
+    private class RedisCall extends VarArgFunction {
+        @Override public Varargs invoke(Varargs args) {
+            final String command = args.checkjstring(1);
+            switch (command) {
+                case "EXISTS": return LuaValue.valueOf(markers.contains(args.checkjstring(2)) ? 1 : 0);
+                case "BITFIELD": return bitfield(args);
+                default: throw new IllegalArgumentException("unsupported command: "+command);
+            }
+        }
+
+        private LuaValue bitfield(Varargs args) {
+            final int[] counts = counters.computeIfAbsent(args.checkjstring(2), k -> new int[1024]);
+            final LuaTable replies = new LuaTable();
+            boolean saturate = false;
+            int i = 3;
+            while (i <= args.narg()) {
+                final String op = args.checkjstring(i);
+                switch (op) {
+                    case "OVERFLOW":
+                        saturate = args.checkjstring(i+1).equals("SAT");
+                        i += 2;
+                        break;
+                    case "GET":
+                        assertEquals("u8", args.checkjstring(i+1));
+                        replies.insert(0, LuaValue.valueOf(counts[index(args.checkjstring(i+2))]));
+                        i += 3;
+                        break;
+                    case "INCRBY":
+                        assertEquals("u8", args.checkjstring(i+1));
+                        final int index = index(args.checkjstring(i+2));
+                        int value = counts[index] + args.checkint(i+3);
+                        value = saturate ? Math.max(0, Math.min(255, value)) : value & 0xff;
+                        counts[index] = value;
+                        replies.insert(0, LuaValue.valueOf(value));
+                        i += 4;
+                        break;
+                    default: throw new IllegalArgumentException("unsupported BITFIELD op: "+op);
+                }
+            }
+            return replies;
+        }
+
+        private int index(String offset) {
+            assertEquals('#', offset.charAt(0));
+            return Integer.parseInt(offset.substring(1));
+        }
+    }
+
+    private int run(String script, List<String> keys, List<String> argv) {
+        final Globals globals = JsePlatform.standardGlobals();
+        globals.set("unpack", globals.get("table").get("unpack")); // a global in redis' lua 5.1
+        final LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall());
+        globals.set("redis", redis);
+        globals.set("KEYS", table(keys));
+        globals.set("ARGV", table(argv));
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(script), UTF_8)) {
+            return globals.load(reader, script).call().checkint();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private LuaTable table(List<String> values) {
+        final LuaTable t = new LuaTable();
+        for (String v : values) t.insert(0, LuaValue.valueOf(v));
+        return t;
+    }
+
+    private int update(int delta, Integer... indexes) {
+        final List<String> argv = new ArrayList<>();
+        argv.add(String.valueOf(delta));
+        for (Integer i : indexes) argv.add(String.valueOf(i));
+        return run("bloom_filter_update.lua", Arrays.asList(COUNTERS, BUILDING), argv);
+    }
+
+    private int check(Integer... indexes) {
+        final List<String> argv = new ArrayList<>();
+        for (Integer i : indexes) argv.add(String.valueOf(i));
+        return run("bloom_filter_check.lua", Arrays.asList(COUNTERS, READY), argv);
+    }
+
+    private int count(int index) { return counters.get(COUNTERS)[index]; }
+
+    @Test
+    public void testAddCheckRemove () {
+        update(1, 3, 7, 11);
+        assertEquals(1, check(3, 7, 11));
+        assertEquals(0, check(3, 7, 12));
+        update(-1, 3, 7, 11);
+        assertEquals(0, check(3, 7, 11));
+        assertEquals(0, count(3));
+    }
+
+    @Test
+    public void testCountersDoNotGoBelowZero () {
+        update(1, 5);
+        update(-1, 5, 5, 5);
+        assertEquals(0, count(5));
+    }
+
+    @Test
+    public void testSaturatedCounterIsSticky () {
+        // 300 values share counter 9, so it saturates; each has its own second counter
+        for (int i = 0; i < 300; i++) update(1, 9, 100 + i);
+        assertEquals(255, count(9));
+
+        // delete all but the last value: counter 9 must not reach zero while that value exists
+        for (int i = 0; i < 299; i++) update(-1, 9, 100 + i);
+        assertEquals(255, count(9));
+        assertEquals(1, check(9, 399));
+        assertEquals(0, count(100)); // counters below the maximum still count down
+    }
+
+    @Test
+    public void testDuplicateIndexesInOneCall () {
+        // double hashing can map one value to the same counter twice
+        update(1, 4, 4);
+        assertEquals(2, count(4));
+        update(-1, 4, 4);
+        assertEquals(0, count(4));
+    }
+
+    @Test
+    public void testRemoveSkippedDuringRebuild () {
+        update(1, 6);
+        markers.add(BUILDING);
+        assertEquals(0, update(-1, 6));
+        assertEquals(1, count(6));
+        markers.remove(BUILDING);
+        assertEquals(1, update(-1, 6));
+        assertEquals(0, count(6));
+    }
+
+    @Test
+    public void testNotReady () {
+        markers.remove(READY);
+        assertEquals(-1, check(1));
+    }
+
+    @Test
+    public void testLargeBatch () {
+        // more indexes than fit in one BITFIELD call, as in a full MAX_VALUES_PER_CALL batch
+        final Integer[] indexes = new Integer[3500];
+        for (int i = 0; i < indexes.length; i++) indexes[i] = i % 1000;
+        update(1, indexes);
+        assertEquals(4, count(0));
+        assertEquals(3, count(999));
+        update(-1, indexes);
+        assertEquals(0, count(0));
+        assertEquals(0, count(999));
+    }
+
+}
@@ -0,0 +1,40 @@
+package org.cobbzilla.wizard.dao.shard.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardBloomFilterTest {
+
+    // sizing only reads its arguments, redis is not touched until the filter is used
+    private ShardBloomFilter filter(long expectedEntries, double falsePositiveRate) {
+        return new ShardBloomFilter(null, "test", expectedEntries, falsePositiveRate);
+    }
+
+    @Test
+    public void testSizing () {
+        // m = ceil(-n ln(p) / ln(2)^2), k = round(m/n ln(2))
+        assertSizing(1_000_000, 0.01, 9_585_059, 7);
+        assertSizing(1_000, 0.001, 14_378, 10);
+    }
+
+    @Test
+    public void testNoEntriesSizedAsOne () {
+        assertSizing(0, 0.01, 10, 7);
+        assertSizing(-5, 0.01, 10, 7);
+        assertSizing(1, 0.01, 10, 7);
+    }
+
+    @Test
+    public void testAtLeastOneHash () {
+        // a very loose filter would round to zero hashes
+        assertSizing(100, 0.9, 22, 1);
+    }
+
+    private void assertSizing(long n, double p, long size, int hashes) {
+        final ShardBloomFilter filter = filter(n, p);
+        assertEquals("wrong size for n="+n+", p="+p, size, filter.getSize());
+        assertEquals("wrong hash count for n="+n+", p="+p, hashes, filter.getHashes());
+    }
+
+}
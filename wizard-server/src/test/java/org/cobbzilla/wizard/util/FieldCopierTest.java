@@ -0,0 +1,59 @@
+package org.cobbzilla.wizard.util;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.cobbzilla.wizard.model.IdentifiableBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class FieldCopierTest {
+
+    @Accessors(chain=true)
+    public static class Thing extends IdentifiableBase {
+        @Getter @Setter private String name;
+        @Getter @Setter private int count;
+        @Getter @Setter private boolean active;
+        @Getter @Setter private List<String> tags = new ArrayList<>();
+    }
+
+    @Test
+    public void testShallowCopy () {
+        final Thing original = new Thing().setName("thing").setCount(3).setActive(true);
+        original.getTags().add("tag");
+        original.setUuid(UUID.randomUUID().toString());
+        original.setCtime(12345L);
+        final Thing copy = FieldCopier.copyOf(original);
+
+        assertNotSame(original, copy);
+        assertEquals(original.getUuid(), copy.getUuid()); // superclass fields are copied too
+        assertEquals(12345L, copy.getCtime());
+        assertEquals(original.getName(), copy.getName());
+        assertEquals(original.getCount(), copy.getCount());
+        assertEquals(original.isActive(), copy.isActive());
+
+        // shallow: referenced objects are shared, not cloned
+        assertSame(original.getTags(), copy.getTags());
+
+        // but the copy's own fields are independent of the original's
+        copy.setName("changed");
+        assertEquals("thing", original.getName());
+    }
+
+    @Test
+    public void testNull () { assertNull(FieldCopier.copyOf(null)); }
+
+    public static class NoDefaultConstructor {
+        private final String value;
+        public NoDefaultConstructor(String value) { this.value = value; }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNoDefaultConstructor () { FieldCopier.copyOf(new NoDefaultConstructor("x")); }
+
+}
@@ -0,0 +1,62 @@
+package org.cobbzilla.wizard.util;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SortedMergeTest {
+
+    private static final Comparator<Integer> ASC = Comparator.naturalOrder();
+
+    @Test
+    public void testMergeStopsAtLimit () {
+        final List<List<Integer>> shards = asList(asList(1, 4, 7), asList(2, 5, 8), asList(3, 6, 9));
+        assertEquals(asList(1, 2, 3, 4, 5), SortedMerge.merge(shards, ASC, 5));
+    }
+
+    @Test
+    public void testIteratorMergesLazily () {
+        final List<List<Integer>> shards = asList(asList(1, 4, 7), asList(2, 5, 8), null, asList(3, 6, 9));
+        final Iterator<Integer> iter = SortedMerge.iterator(shards, ASC);
+        final List<Integer> merged = new ArrayList<>();
+        while (iter.hasNext()) merged.add(iter.next());
+        assertEquals(asList(1, 2, 3, 4, 5, 6, 7, 8, 9), merged);
+    }
+
+    @Test
+    public void testMergeAll () {
+        final List<List<Integer>> shards = asList(asList(1, 1, 10), asList(2, 3), asList(0, 20));
+        assertEquals(asList(0, 1, 1, 2, 3, 10, 20), SortedMerge.merge(shards, ASC, 100));
+    }
+
+    @Test
+    public void testMergeSkipsEmptyShards () {
+        final List<List<Integer>> shards = asList(Collections.<Integer>emptyList(), null, asList(5, 6), new ArrayList<>());
+        assertEquals(asList(5, 6), SortedMerge.merge(shards, ASC, 10));
+        assertTrue(SortedMerge.merge(shards, ASC, 0).isEmpty());
+        assertTrue(SortedMerge.merge(Collections.<List<Integer>>emptyList(), ASC, 10).isEmpty());
+    }
+
+    @Test
+    public void testMergeDescending () {
+        final List<List<Integer>> shards = asList(asList(9, 5, 1), asList(8, 7, 2));
+        assertEquals(asList(9, 8, 7, 5), SortedMerge.merge(shards, ASC.reversed(), 4));
+    }
+
+    @Test
+    public void testTopN () {
+        final List<Integer> things = asList(7, 3, 9, 1, 8, 2);
+        final List<Integer> original = new ArrayList<>(things);
+        assertEquals(asList(1, 2, 3), SortedMerge.topN(things, ASC, 3));
+        assertEquals(asList(9, 8), SortedMerge.topN(things, ASC.reversed(), 2));
+        assertEquals(asList(1, 2, 3, 7, 8, 9), SortedMerge.topN(things, ASC, 6));
+        assertEquals(asList(1, 2, 3, 7, 8, 9), SortedMerge.topN(things, ASC, 100));
+        assertTrue(SortedMerge.topN(things, ASC, 0).isEmpty());
+        assertEquals("topN must not modify its input", original, things);
+    }
+
+}